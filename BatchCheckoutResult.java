@@ -0,0 +1,63 @@
+
+import java.util.Collections;
+import java.util.Map;
+
+public class BatchCheckoutResult {
+
+    private final int acceptedOrders;
+    private final Map<Integer, String> rejectedOrders;
+    private final long totalRevenueMinor;
+    private final long totalShippingFeesMinor;
+    private final double totalWeight;
+    private final long elapsedNanos;
+
+    public BatchCheckoutResult(int acceptedOrders, Map<Integer, String> rejectedOrders, long totalRevenueMinor,
+                               long totalShippingFeesMinor, double totalWeight, long elapsedNanos) {
+        this.acceptedOrders = acceptedOrders;
+        this.rejectedOrders = Collections.unmodifiableMap(rejectedOrders);
+        this.totalRevenueMinor = totalRevenueMinor;
+        this.totalShippingFeesMinor = totalShippingFeesMinor;
+        this.totalWeight = totalWeight;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getAcceptedOrders() {
+        return this.acceptedOrders;
+    }
+
+    /**
+     * @return rejection reason keyed by the order's position in the batch
+     */
+    public Map<Integer, String> getRejectedOrders() {
+        return this.rejectedOrders;
+    }
+
+    public double getTotalRevenue() {
+        return Money.toMajor(this.totalRevenueMinor);
+    }
+
+    public long getTotalRevenueMinor() {
+        return this.totalRevenueMinor;
+    }
+
+    public double getTotalShippingFees() {
+        return Money.toMajor(this.totalShippingFeesMinor);
+    }
+
+    public long getTotalShippingFeesMinor() {
+        return this.totalShippingFeesMinor;
+    }
+
+    public double getTotalWeight() {
+        return this.totalWeight;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    public double getCartsPerSecond() {
+        int processed = this.acceptedOrders + this.rejectedOrders.size();
+        return this.elapsedNanos == 0 ? 0.0 : processed * 1_000_000_000.0 / this.elapsedNanos;
+    }
+}
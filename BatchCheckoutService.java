@@ -0,0 +1,188 @@
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks out many carts in a single pass.
+ * <p>
+ * Unlike {@link CheckoutService}, no {@link ShippingService} or per-order
+ * service object is built: each cart is priced and weighed with one walk over
+ * its items. Stock movements are summed per product across the whole batch and
+ * applied once at the end, so a hot SKU shared by thousands of carts is touched
+ * once rather than once per cart. Should a summed commit fail, the products
+ * already committed are reverted and the accepted orders are committed one by
+ * one instead, so only the orders whose stock is really gone are refunded and
+ * rejected. Rejections and completed checkouts are recorded in
+ * {@link CheckoutMetrics} like any other checkout.
+ */
+public class BatchCheckoutService {
+
+    public BatchCheckoutResult checkout(List<Order> orders) {
+        if (orders == null) {
+            throw new IllegalArgumentException("Invalid orders");
+        }
+        long start = System.nanoTime();
+
+        Map<Product, int[]> committed = new IdentityHashMap<>();
+        Map<Integer, String> rejected = new LinkedHashMap<>();
+        List<Accepted> accepted = new ArrayList<>();
+        ShippingTotals orderShipping = new ShippingTotals();
+
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            if (order == null) {
+                reject(rejected, i, CheckoutMetrics.Rejection.INVALID_ORDER, "Invalid order");
+                continue;
+            }
+            Cart cart = order.getCart();
+            if (cart.isEmpty()) {
+                reject(rejected, i, CheckoutMetrics.Rejection.EMPTY_CART, "Cart cannot be empty");
+                continue;
+            }
+
+            if (!cart.claimCheckout()) {
+                reject(rejected, i, CheckoutMetrics.Rejection.CHECKED_OUT_CART, "Cart already checked out");
+                continue;
+            }
+            orderShipping.reset();
+            cart.forEachItem(orderShipping);
+
+            long subtotal = Money.subtract(cart.getTotalPriceMinor(), cart.getDiscountMinor());
+            long charged = Money.add(subtotal, orderShipping.feesMinor);
+            Wallet wallet = order.getCustomer().getWallet();
+            if (!wallet.tryDebit(charged)) {
+                // As in CheckoutService, the cart keeps its reservations and can be topped up or emptied
+                cart.releaseCheckout();
+                reject(rejected, i, CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE,
+                        "Insufficient customer balance for this purchase");
+                continue;
+            }
+            if (!cart.claimHolds()) {
+                wallet.credit(charged);
+                cart.releaseCheckout();
+                reject(rejected, i, CheckoutMetrics.Rejection.INVALID_STOCK, "Stock hold expired");
+                continue;
+            }
+            // Stock is committed below, or released if the order's stock turns out to be gone
+            cart.finishHolds();
+
+            collectStockMovements(cart, committed);
+            accepted.add(new Accepted(i, order, subtotal, charged, orderShipping.feesMinor, orderShipping.weight));
+        }
+
+        if (commitAll(committed) != null) {
+            commitEach(accepted, rejected);
+        }
+
+        long revenue = 0;
+        long shippingFees = 0;
+        double weight = 0.0;
+        for (Accepted order : accepted) {
+            CheckoutMetrics.global().recordCompletedCheckout();
+            revenue = Money.add(revenue, order.subtotalMinor);
+            shippingFees = Money.add(shippingFees, order.feesMinor);
+            weight += order.weight;
+        }
+        return new BatchCheckoutResult(accepted.size(), rejected, revenue, shippingFees, weight, System.nanoTime() - start);
+    }
+
+    /**
+     * Commits the summed movements, reverting the products already committed if one fails
+     *
+     * @return the product whose commit failed, or null if every movement was committed
+     */
+    private static Product commitAll(Map<Product, int[]> movements) {
+        List<Map.Entry<Product, int[]>> done = new ArrayList<>();
+        for (Map.Entry<Product, int[]> entry : movements.entrySet()) {
+            if (!entry.getKey().commitReservation(entry.getValue()[0])) {
+                for (Map.Entry<Product, int[]> committed : done) {
+                    committed.getKey().revertCommittedReservation(committed.getValue()[0]);
+                }
+                return entry.getKey();
+            }
+            done.add(entry);
+        }
+        return null;
+    }
+
+    /**
+     * Commits order by order; an order whose stock is gone is refunded, has its
+     * other reservations released and moves from accepted to rejected
+     */
+    private static void commitEach(List<Accepted> accepted, Map<Integer, String> rejected) {
+        List<Accepted> failed = new ArrayList<>();
+        for (Accepted order : accepted) {
+            Map<Product, int[]> movements = new IdentityHashMap<>();
+            collectStockMovements(order.order.getCart(), movements);
+            Product exhausted = commitAll(movements);
+            if (exhausted == null) {
+                continue;
+            }
+            for (Map.Entry<Product, int[]> entry : movements.entrySet()) {
+                // The exhausted line no longer holds its units; releasing it would free units other carts reserved
+                if (entry.getKey() != exhausted) {
+                    entry.getKey().releaseReservation(entry.getValue()[0]);
+                }
+            }
+            order.order.getCustomer().getWallet().credit(order.chargedMinor);
+            // The cart stays sealed: its lines no longer hold any stock
+            reject(rejected, order.index, CheckoutMetrics.Rejection.INVALID_STOCK, "Reserved stock is no longer available");
+            failed.add(order);
+        }
+        accepted.removeAll(failed);
+    }
+
+    private static void reject(Map<Integer, String> rejected, int index, CheckoutMetrics.Rejection rejection,
+                               String reason) {
+        CheckoutMetrics.global().recordRejection(rejection);
+        rejected.put(index, reason);
+    }
+
+    private static void collectStockMovements(Cart cart, Map<Product, int[]> movements) {
+        cart.forEachItem((item, quantity) -> movements.computeIfAbsent(item, product -> new int[1])[0] += quantity);
+    }
+
+    private static class Accepted {
+
+        private final int index;
+        private final Order order;
+        private final long subtotalMinor;
+        private final long chargedMinor;
+        private final long feesMinor;
+        private final double weight;
+
+        private Accepted(int index, Order order, long subtotalMinor, long chargedMinor, long feesMinor, double weight) {
+            this.index = index;
+            this.order = order;
+            this.subtotalMinor = subtotalMinor;
+            this.chargedMinor = chargedMinor;
+            this.feesMinor = feesMinor;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Reusable per-order shipping accumulator, so pricing a cart allocates nothing
+     */
+    private static class ShippingTotals implements CartLineConsumer {
+
+        private long feesMinor;
+        private double weight;
+
+        private void reset() {
+            this.feesMinor = 0;
+            this.weight = 0.0;
+        }
+
+        @Override
+        public void accept(Product product, int quantity) {
+            if (product instanceof Shippable shippableProduct) {
+                this.feesMinor = Money.add(this.feesMinor, Money.multiply(shippableProduct.getShippingFeesMinor(), quantity));
+                this.weight += shippableProduct.getWeight() * quantity;
+            }
+        }
+    }
+}
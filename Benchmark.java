@@ -0,0 +1,268 @@
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntFunction;
+
+/**
+ * Micro-benchmarks for the cart, shipping and checkout hot paths.
+ * <p>
+ * Run with {@code java Benchmark [seconds-per-benchmark]}. Every benchmark is
+ * warmed up, then timed for the requested duration on one thread and on all
+ * available processors, for cart sizes from 1 to 10k lines.
+ */
+public class Benchmark {
+
+    private static final int[] CART_SIZES = {1, 10, 100, 1_000, 10_000};
+    private static final int LARGE_STOCK = 1_000_000_000;
+
+    // Written by every benchmark so the JIT cannot drop the measured work
+    private static volatile long blackhole;
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        int[] threadCounts = {1, Math.max(2, Runtime.getRuntime().availableProcessors())};
+
+        System.out.printf("%-44s %7s %7s %14s %16s%n", "Benchmark", "lines", "threads", "ns/op", "ops/s");
+        for (int lines : CART_SIZES) {
+            for (int threads : threadCounts) {
+                run("Cart.addItem (private products)", lines, threads, seconds, Benchmark::privateCartFill);
+                run("Cart.addItem (shared hot products)", lines, threads, seconds, sharedCartFill(lines));
+                run("ColumnarCart.addItem (private products)", lines, threads, seconds, Benchmark::columnarCartFill);
+                run("ShippingService construction", lines, threads, seconds, Benchmark::shippingQuote);
+                run("ShippingService incremental add/remove", lines, threads, seconds, Benchmark::incrementalShippingQuote);
+                run("CheckoutService.generateReceipt", lines, threads, seconds, Benchmark::receipt);
+                run("CheckoutService.generateReceipt (in-memory)", lines, threads, seconds, Benchmark::receiptToBuffer);
+                run("Expirable.isExpired", lines, threads, seconds, Benchmark::expiryCheck);
+                run("Order total (double major units)", lines, threads, seconds, Benchmark::doubleTotal);
+                run("Order total (long minor units)", lines, threads, seconds, Benchmark::minorUnitTotal);
+                run("CheckoutMetrics stage + rejection record", lines, threads, seconds, Benchmark::metricsRecord);
+            }
+        }
+    }
+
+    private static IntFunction<Runnable> sharedCartFill(int lines) {
+        List<Product> shared = products(lines);
+        return ignored -> () -> fillAndRelease(shared);
+    }
+
+    private static Runnable privateCartFill(int lines) {
+        List<Product> products = products(lines);
+        return () -> fillAndRelease(products);
+    }
+
+    private static Runnable columnarCartFill(int lines) {
+        List<Product> products = products(lines);
+        return () -> fillAndRelease(new ColumnarCart(lines), products);
+    }
+
+    private static void fillAndRelease(List<Product> products) {
+        fillAndRelease(new Cart(), products);
+    }
+
+    private static void fillAndRelease(Cart cart, List<Product> products) {
+        for (Product product : products) {
+            cart.addItem(product, 1);
+        }
+        for (Product product : products) {
+            product.releaseReservation(1);
+        }
+        blackhole = cart.getLineCount();
+    }
+
+    private static Runnable shippingQuote(int lines) {
+        Cart cart = filledCart(lines);
+        return () -> {
+            ShippingService shippingService = new ShippingService(cart.getItems());
+            blackhole = (long) shippingService.getTotalShippingFees();
+        };
+    }
+
+    private static Runnable incrementalShippingQuote(int lines) {
+        Cart cart = filledCart(lines);
+        ShippingService shippingService = new ShippingService(cart);
+        Product extra = products(2).get(1);
+        return () -> {
+            cart.addItem(extra, 1);
+            cart.removeItem(extra, 1);
+            blackhole = (long) shippingService.getTotalShippingFees();
+        };
+    }
+
+    private static Runnable receipt(int lines) {
+        Cart cart = filledCart(lines);
+        Customer customer = new Customer("Benchmark Customer", 1e12, cart);
+        CheckoutService checkout = new CheckoutService(cart, customer, new ShippingService(cart));
+        return checkout::generateReceipt;
+    }
+
+    private static Runnable receiptToBuffer(int lines) {
+        Cart cart = filledCart(lines);
+        Customer customer = new Customer("Benchmark Customer", 1e12, cart);
+        CheckoutService checkout = new CheckoutService(cart, customer, new ShippingService(cart));
+        StringBuilder sink = new StringBuilder();
+        return () -> {
+            sink.setLength(0);
+            checkout.generateReceipt(sink);
+            blackhole = sink.length();
+        };
+    }
+
+    private static Runnable doubleTotal(int lines) {
+        List<Product> products = products(lines);
+        return () -> {
+            double total = 0.0;
+            for (Product product : products) {
+                total += product.getPrice() * 3;
+                if (product instanceof Shippable shippable) {
+                    total += shippable.getShippingFees() * 3;
+                }
+            }
+            blackhole = (long) total;
+        };
+    }
+
+    private static Runnable minorUnitTotal(int lines) {
+        List<Product> products = products(lines);
+        return () -> {
+            long total = 0;
+            for (Product product : products) {
+                total = Money.add(total, Money.multiply(product.getPriceMinor(), 3));
+                if (product instanceof Shippable shippable) {
+                    total = Money.add(total, Money.multiply(shippable.getShippingFeesMinor(), 3));
+                }
+            }
+            blackhole = total;
+        };
+    }
+
+    /**
+     * Cost of the instrumentation added to each checkout stage, per recorded line
+     */
+    private static Runnable metricsRecord(int lines) {
+        CheckoutMetrics metrics = new CheckoutMetrics();
+        return () -> {
+            for (int i = 0; i < lines; i++) {
+                long start = System.nanoTime();
+                metrics.recordSince(CheckoutMetrics.Stage.CHECKOUT, start);
+                metrics.recordRejection(CheckoutMetrics.Rejection.ITEM_REFUSED);
+            }
+            blackhole = metrics.getRejections(CheckoutMetrics.Rejection.ITEM_REFUSED);
+        };
+    }
+
+    private static Runnable expiryCheck(int lines) {
+        List<Expirable> expirables = new ArrayList<>(lines);
+        for (Product product : products(lines)) {
+            if (product instanceof Expirable expirable) {
+                expirables.add(expirable);
+            }
+        }
+        return () -> {
+            long expired = 0;
+            for (Expirable expirable : expirables) {
+                if (expirable.isExpired()) {
+                    expired++;
+                }
+            }
+            blackhole = expired;
+        };
+    }
+
+    private static Cart filledCart(int lines) {
+        Cart cart = new Cart();
+        for (Product product : products(lines)) {
+            cart.addItem(product, 1 + (int) (blackhole & 1));
+        }
+        return cart;
+    }
+
+    /**
+     * Builds a mix of every product type so each line takes a realistic branch
+     */
+    private static List<Product> products(int count) {
+        LocalDate expiry = LocalDate.now().plusDays(30);
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "Item " + i;
+            switch (i % 4) {
+                case 0 -> products.add(new Product(name, LARGE_STOCK, 9.99));
+                case 1 -> products.add(new ShippableProduct(name, LARGE_STOCK, 19.99, 0.5, 4.99));
+                case 2 -> products.add(new ExpirableProduct(name, LARGE_STOCK, 2.49, expiry));
+                default -> products.add(new ExpirableShippableProduct(name, LARGE_STOCK, 12.99, expiry, 1.2, 6.99));
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Times an operation on {@code threads} threads, each with its own instance
+     * built by {@code setup}, unless the setup hands out shared state
+     */
+    private static void run(String name, int lines, int threads, double seconds, IntFunction<Runnable> setup)
+            throws InterruptedException {
+        Runnable[] operations = new Runnable[threads];
+        for (int t = 0; t < threads; t++) {
+            operations[t] = setup.apply(lines);
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long[] warmup = timeThreads(operations, (long) (seconds * 500_000_000L));
+            blackhole += warmup[0];
+            long[] measured = timeThreads(operations, (long) (seconds * 1_000_000_000L));
+            double nanosPerOp = (double) measured[1] * threads / measured[0];
+            console.printf("%-44s %7d %7d %14.1f %16.0f%n", name, lines, threads, nanosPerOp,
+                    measured[0] * 1_000_000_000.0 / measured[1]);
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * @return total operations completed and elapsed wall-clock nanos
+     */
+    private static long[] timeThreads(Runnable[] operations, long durationNanos) throws InterruptedException {
+        long[] counts = new long[operations.length];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        long[] window = new long[1];
+        for (int t = 0; t < operations.length; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                Runnable operation = operations[index];
+                long deadline = window[0] + durationNanos;
+                long done = 0;
+                do {
+                    operation.run();
+                    done++;
+                } while (System.nanoTime() < deadline);
+                counts[index] = done;
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        window[0] = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - window[0];
+
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return new long[]{total, elapsed};
+    }
+}
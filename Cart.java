@@ -1,28 +1,300 @@
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Cart {
 
     private final Map<Product, Integer> items = new LinkedHashMap<>();
-    private double totalPrice;
+    private final List<CartListener> listeners = new ArrayList<>();
+    private final Map<Product, StockLease> leases = new IdentityHashMap<>();
+    private long totalPriceMinor;
+    private PricingEngine pricingEngine;
+    private StockHolds stockHolds;
+    private volatile boolean checkedOut;
 
     public boolean addItem(Product item, int quantity) {
-        if (item != null && quantity > 0 && quantity <= item.getQuantity() && item.reduceQuantity(quantity)) {
-            this.items.merge(item, quantity, Integer::sum);
-            updateTotalPrice(item.getPrice() * quantity);
+        if (this.checkedOut || item == null || quantity <= 0 || quantity > item.getQuantity()) {
+            return refuseItem();
+        }
+        if (item instanceof Expirable expirable && expirable.isExpired()) {
+            return refuseItem();
+        }
+        long linePrice;
+        try {
+            linePrice = Money.multiply(item.getPriceMinor(), quantity);
+            Money.add(this.totalPriceMinor, linePrice);
+        } catch (ArithmeticException e) {
+            return refuseItem();
+        }
+        StockLease lease = acquireLease(item);
+        if (item.reserveQuantity(quantity)) {
+            addLine(item, quantity);
+            updateTotalPrice(linePrice);
+            if (lease != null) {
+                lease.extend(quantity);
+            } else if (this.stockHolds != null) {
+                this.leases.put(item, this.stockHolds.hold(item, quantity));
+            }
+            for (CartListener listener : this.listeners) {
+                listener.itemAdded(item, quantity);
+            }
+            return true;
+        }
+        if (lease != null) {
+            lease.restore();
+        }
+        return refuseItem();
+    }
+
+    private static boolean refuseItem() {
+        CheckoutMetrics.global().recordRejection(CheckoutMetrics.Rejection.ITEM_REFUSED);
+        return false;
+    }
+
+    /**
+     * Removes units of an item and returns their reserved stock to the product
+     *
+     * @return false if the cart holds fewer than {@code quantity} units of the item
+     */
+    public boolean removeItem(Product item, int quantity) {
+        int current = getItemQuantity(item);
+        if (this.checkedOut || current == 0 || quantity <= 0 || quantity > current) {
+            return false;
+        }
+        StockLease lease = acquireLease(item);
+        if (getItemQuantity(item) == 0) {
+            return false;
+        }
+        if (!item.releaseReservation(quantity)) {
+            if (lease != null) {
+                lease.restore();
+            }
+            return false;
+        }
+        if (lease != null) {
+            if (quantity == current) {
+                lease.finish();
+                this.leases.remove(item);
+            } else {
+                lease.shrink(quantity);
+            }
+        }
+        removeLine(item, quantity);
+        updateTotalPrice(-Money.multiply(item.getPriceMinor(), quantity));
+        for (CartListener listener : this.listeners) {
+            listener.itemRemoved(item, quantity);
+        }
+        return true;
+    }
+
+    /**
+     * Holds the stock of every line for a limited time only; once a hold expires its
+     * units return to the shelf and the line is dropped the next time it is touched
+     *
+     * @return false if the holds are invalid or the cart already has items
+     */
+    public boolean setStockHolds(StockHolds stockHolds) {
+        if (stockHolds != null && isEmpty()) {
+            this.stockHolds = stockHolds;
             return true;
         }
         return false;
     }
 
-    private void updateTotalPrice(double price) {
-        this.totalPrice += price;
+    /**
+     * Takes the item's lease away from the reaper. If the lease already expired,
+     * its line no longer has stock behind it and is dropped from the cart.
+     *
+     * @return the acquired lease, or null if the item is not held
+     */
+    private StockLease acquireLease(Product item) {
+        StockLease lease = this.leases.get(item);
+        if (lease == null || lease.acquire()) {
+            return lease;
+        }
+        this.leases.remove(item);
+        int quantity = getItemQuantity(item);
+        removeLine(item, quantity);
+        updateTotalPrice(-Money.multiply(item.getPriceMinor(), quantity));
+        for (CartListener listener : this.listeners) {
+            listener.itemRemoved(item, quantity);
+        }
+        return null;
+    }
+
+    /**
+     * Drops every line whose hold has expired
+     *
+     * @return number of lines dropped
+     */
+    public int dropExpiredHolds() {
+        int dropped = 0;
+        for (Product item : new ArrayList<>(this.leases.keySet())) {
+            StockLease lease = acquireLease(item);
+            if (lease == null) {
+                dropped++;
+            } else {
+                lease.restore();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Takes every hold away from the reaper ahead of committing the stock
+     *
+     * @return false, with no hold taken, if any hold has already expired
+     */
+    boolean claimHolds() {
+        List<StockLease> claimed = new ArrayList<>(this.leases.size());
+        for (StockLease lease : this.leases.values()) {
+            if (!lease.acquire()) {
+                claimed.forEach(StockLease::restore);
+                return false;
+            }
+            claimed.add(lease);
+        }
+        return true;
+    }
+
+    /**
+     * Hands claimed holds back to the reaper after a failed checkout
+     */
+    void restoreHolds() {
+        this.leases.values().forEach(StockLease::restore);
+    }
+
+    /**
+     * Ends claimed holds once their stock has been sold or released by the caller
+     */
+    void finishHolds() {
+        this.leases.values().forEach(StockLease::finish);
+        this.leases.clear();
+    }
+
+    /**
+     * Claims the cart for one checkout. Once claimed its lines can no longer be
+     * changed, and no other checkout can claim it unless this one gives it back.
+     *
+     * @return false if the cart is already checked out, or being checked out
+     */
+    synchronized boolean claimCheckout() {
+        if (this.checkedOut) {
+            return false;
+        }
+        this.checkedOut = true;
+        return true;
+    }
+
+    /**
+     * Gives the cart back after a failed checkout, so it can be changed or checked out again
+     */
+    synchronized void releaseCheckout() {
+        this.checkedOut = false;
+    }
+
+    /**
+     * @return true once the cart has been checked out; its stock is sold and it cannot be reused
+     */
+    public synchronized boolean isCheckedOut() {
+        return this.checkedOut;
+    }
+
+    /**
+     * Sets the item's line to exactly {@code quantity} units, adding or removing the difference
+     *
+     * @return false if the change could not be made; a quantity of 0 drops the line
+     */
+    public boolean updateItem(Product item, int quantity) {
+        if (item == null || quantity < 0) {
+            return false;
+        }
+        int current = getItemQuantity(item);
+        if (quantity == current) {
+            return true;
+        }
+        return quantity > current ? addItem(item, quantity - current) : removeItem(item, current - quantity);
+    }
+
+    public boolean addListener(CartListener listener) {
+        return listener != null && this.listeners.add(listener);
+    }
+
+    public boolean removeListener(CartListener listener) {
+        return this.listeners.remove(listener);
+    }
+
+    private void updateTotalPrice(long priceMinor) {
+        this.totalPriceMinor = Money.add(this.totalPriceMinor, priceMinor);
     }
 
     public double getTotalPrice() {
-        return this.totalPrice;
+        return Money.toMajor(this.totalPriceMinor);
+    }
+
+    public long getTotalPriceMinor() {
+        return this.totalPriceMinor;
+    }
+
+    /**
+     * Prices the cart through the given engine's live rules; list prices stay in the subtotal
+     */
+    public boolean setPricingEngine(PricingEngine pricingEngine) {
+        if (pricingEngine != null) {
+            this.pricingEngine = pricingEngine;
+            return true;
+        }
+        return false;
+    }
+
+    public PricingEngine getPricingEngine() {
+        return this.pricingEngine;
+    }
+
+    /**
+     * @return discount on the subtotal under the pricing engine's current rules, or 0 without an engine
+     */
+    public long getDiscountMinor() {
+        return this.pricingEngine == null ? 0 : this.pricingEngine.getDiscountMinor(this);
+    }
+
+    /**
+     * Adds units to the item's line, appending a new line if the item is not in the cart yet
+     */
+    protected void addLine(Product item, int quantity) {
+        this.items.merge(item, quantity, Integer::sum);
+    }
+
+    /**
+     * Takes units off the item's line, dropping the line once it reaches zero
+     */
+    protected void removeLine(Product item, int quantity) {
+        this.items.computeIfPresent(item, (product, current) -> current == quantity ? null : current - quantity);
+    }
+
+    /**
+     * @return units of the item in the cart, or 0 if it is not in the cart
+     */
+    public int getItemQuantity(Product item) {
+        Integer quantity = item == null ? null : this.items.get(item);
+        return quantity == null ? 0 : quantity;
+    }
+
+    /**
+     * Visits every line in insertion order without boxing quantities
+     */
+    public void forEachItem(CartLineConsumer consumer) {
+        for (Map.Entry<Product, Integer> entry : this.items.entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int getLineCount() {
+        return this.items.size();
     }
 
     public Map<Product, Integer> getItems() {
@@ -30,7 +302,7 @@ public class Cart {
     }
 
     public boolean isEmpty() {
-        return this.items.isEmpty();
+        return getLineCount() == 0;
     }
 
 }
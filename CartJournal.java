@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only binary stream of the changes made to one {@link Cart}.
+ * <p>
+ * The stream opens with a snapshot of the cart's lines, followed by one record
+ * per change: an opcode byte, the SKU's id and the quantity, both as unsigned
+ * varints. A SKU's name is written once, the first time it appears, and
+ * referred to by a small id afterwards, so a typical change costs three bytes.
+ * Once the changes since the last snapshot outnumber both the compaction
+ * threshold and the cart's lines, the stream is rewritten as a fresh snapshot
+ * and a new generation begins; compaction therefore costs O(1) amortised per
+ * change, and replaying a stream never costs more than a few times its cart.
+ * <p>
+ * Replicas can ship just the tail of a generation with
+ * {@link #writeTo(OutputStream, long, int)}; after a compaction it refuses the
+ * stale offset and they need the whole stream again. A journal, like its cart, is not thread-safe, and only carts
+ * of catalogued products (with a SKU) can be journaled. {@link #close()} stops
+ * recording the cart's changes.
+ */
+public class CartJournal implements CartListener, AutoCloseable {
+
+    private static final int DEFINE = 0;
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int SNAPSHOT = 3;
+
+    private final Cart cart;
+    private final int compactionThreshold;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private byte[] buffer = new byte[64];
+    private int size;
+    private int changesSinceSnapshot;
+    private long generation;
+
+    public CartJournal(Cart cart, int compactionThreshold) {
+        if (cart == null) {
+            throw new IllegalArgumentException("Invalid cart");
+        }
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("Invalid compaction threshold");
+        }
+        this.cart = cart;
+        this.compactionThreshold = compactionThreshold;
+        writeSnapshot();
+        cart.addListener(this);
+    }
+
+    @Override
+    public void itemAdded(Product product, int quantity) {
+        appendChange(ADD, product, quantity);
+    }
+
+    @Override
+    public void itemRemoved(Product product, int quantity) {
+        appendChange(REMOVE, product, quantity);
+    }
+
+    private void appendChange(int opcode, Product product, int quantity) {
+        int id = idOf(product);
+        writeByte(opcode);
+        writeVarint(id);
+        writeVarint(quantity);
+        this.changesSinceSnapshot++;
+        if (this.changesSinceSnapshot > Math.max(this.compactionThreshold, this.cart.getLineCount())) {
+            compact();
+        }
+    }
+
+    /**
+     * Detaches the journal from its cart; the stream written so far stays readable
+     */
+    @Override
+    public void close() {
+        this.cart.removeListener(this);
+    }
+
+    /**
+     * Rewrites the stream as a snapshot of the cart's current lines and starts a new generation
+     */
+    public void compact() {
+        this.ids.clear();
+        this.size = 0;
+        writeSnapshot();
+        this.changesSinceSnapshot = 0;
+        this.generation++;
+    }
+
+    private void writeSnapshot() {
+        List<Product> products = new ArrayList<>(this.cart.getLineCount());
+        List<Integer> quantities = new ArrayList<>(this.cart.getLineCount());
+        this.cart.forEachItem((product, quantity) -> {
+            idOf(product);
+            products.add(product);
+            quantities.add(quantity);
+        });
+        writeByte(SNAPSHOT);
+        writeVarint(products.size());
+        for (int i = 0; i < products.size(); i++) {
+            writeVarint(this.ids.get(products.get(i).getSku()));
+            writeVarint(quantities.get(i));
+        }
+    }
+
+    /**
+     * @return the SKU's id in this generation, defining it in the stream on first use
+     */
+    private int idOf(Product product) {
+        String sku = product.getSku();
+        if (sku == null) {
+            throw new IllegalArgumentException("Product is not in the catalog: " + product.getName());
+        }
+        Integer id = this.ids.get(sku);
+        if (id != null) {
+            return id;
+        }
+        byte[] name = sku.getBytes(StandardCharsets.UTF_8);
+        writeByte(DEFINE);
+        writeVarint(name.length);
+        ensureCapacity(name.length);
+        System.arraycopy(name, 0, this.buffer, this.size, name.length);
+        this.size += name.length;
+        this.ids.put(sku, this.ids.size());
+        return this.ids.size() - 1;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            this.buffer[this.size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (this.size + extra > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+        }
+    }
+
+    /**
+     * @return bytes in the current generation of the stream
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    public int getChangesSinceSnapshot() {
+        return this.changesSinceSnapshot;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+
+    /**
+     * Ships the stream from an offset within a generation, e.g. the generation
+     * and size a replica had already received
+     *
+     * @return false, having written nothing, if the stream has been compacted
+     * since that generation; the replica must then drop its copy and be sent
+     * the whole stream from offset 0 of the current generation
+     */
+    public boolean writeTo(OutputStream out, long generation, int fromOffset) throws IOException {
+        if (generation != this.generation) {
+            return false;
+        }
+        if (fromOffset < 0 || fromOffset > this.size) {
+            throw new IllegalArgumentException("Invalid journal offset");
+        }
+        out.write(this.buffer, fromOffset, this.size - fromOffset);
+        return true;
+    }
+
+    /**
+     * Rebuilds a cart from a journal stream, reserving its stock again in the catalog
+     *
+     * @param into the (normally empty) cart to apply the changes to
+     * @return number of changes that could not be applied, such as SKUs that are
+     * no longer listed or stock that has since sold out
+     * @throws IllegalArgumentException if the stream is corrupt
+     */
+    public static int replay(byte[] stream, Catalog catalog, Cart into) {
+        if (stream == null || catalog == null || into == null) {
+            throw new IllegalArgumentException("Invalid journal replay");
+        }
+        List<Product> products = new ArrayList<>();
+        int[] position = {0};
+        int skipped = 0;
+        while (position[0] < stream.length) {
+            int opcode = stream[position[0]++];
+            switch (opcode) {
+                case DEFINE -> {
+                    int length = readVarint(stream, position);
+                    if (length < 0 || length > stream.length - position[0]) {
+                        throw new IllegalArgumentException("Corrupt cart journal");
+                    }
+                    String sku = new String(stream, position[0], length, StandardCharsets.UTF_8);
+                    position[0] += length;
+                    products.add(catalog.getProduct(sku));
+                }
+                case ADD, REMOVE -> {
+                    Product product = productAt(products, readVarint(stream, position));
+                    int quantity = readVarint(stream, position);
+                    boolean applied = product != null && (opcode == ADD
+                            ? into.addItem(product, quantity) : into.removeItem(product, quantity));
+                    if (!applied) {
+                        skipped++;
+                    }
+                }
+                case SNAPSHOT -> {
+                    int lines = readVarint(stream, position);
+                    for (int i = 0; i < lines; i++) {
+                        Product product = productAt(products, readVarint(stream, position));
+                        int quantity = readVarint(stream, position);
+                        if (product == null || !into.addItem(product, quantity)) {
+                            skipped++;
+                        }
+                    }
+                }
+                default -> throw new IllegalArgumentException("Corrupt cart journal");
+            }
+        }
+        return skipped;
+    }
+
+    private static Product productAt(List<Product> products, int id) {
+        if (id < 0 || id >= products.size()) {
+            throw new IllegalArgumentException("Corrupt cart journal");
+        }
+        return products.get(id);
+    }
+
+    private static int readVarint(byte[] stream, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= stream.length) {
+                throw new IllegalArgumentException("Corrupt cart journal");
+            }
+            byte b = stream[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt cart journal");
+    }
+}
@@ -0,0 +1,9 @@
+
+/**
+ * Receives a cart's lines one at a time, with the quantity as a primitive {@code int}.
+ */
+@FunctionalInterface
+public interface CartLineConsumer {
+
+    void accept(Product product, int quantity);
+}
@@ -0,0 +1,11 @@
+
+/**
+ * Receives every change made to a {@link Cart}, so derived totals can be kept
+ * up to date without re-scanning the cart's items.
+ */
+public interface CartListener {
+
+    void itemAdded(Product product, int quantity);
+
+    void itemRemoved(Product product, int quantity);
+}
@@ -0,0 +1,54 @@
+
+/**
+ * Totals and rendered receipt for one cart's contents, as returned by {@link QuoteCache}
+ */
+public class CartQuote {
+
+    private final long subtotalMinor;
+    private final long discountMinor;
+    private final long shippingFeesMinor;
+    private final double totalWeight;
+    private final String receipt;
+
+    CartQuote(long subtotalMinor, long discountMinor, long shippingFeesMinor, double totalWeight, String receipt) {
+        this.subtotalMinor = subtotalMinor;
+        this.discountMinor = discountMinor;
+        this.shippingFeesMinor = shippingFeesMinor;
+        this.totalWeight = totalWeight;
+        this.receipt = receipt;
+    }
+
+    public long getSubtotalMinor() {
+        return this.subtotalMinor;
+    }
+
+    public long getDiscountMinor() {
+        return this.discountMinor;
+    }
+
+    public long getShippingFeesMinor() {
+        return this.shippingFeesMinor;
+    }
+
+    /**
+     * @return subtotal less the discount, plus shipping
+     */
+    public long getTotalMinor() {
+        return Money.add(Money.subtract(this.subtotalMinor, this.discountMinor), this.shippingFeesMinor);
+    }
+
+    public double getTotal() {
+        return Money.toMajor(getTotalMinor());
+    }
+
+    public double getTotalWeight() {
+        return this.totalWeight;
+    }
+
+    /**
+     * @return the shipment notice and receipt exactly as checkout would print them
+     */
+    public String getReceipt() {
+        return this.receipt;
+    }
+}
@@ -0,0 +1,223 @@
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SKU-keyed index over every product offered for sale.
+ * <p>
+ * Lookups go straight to a {@link ConcurrentHashMap}, so reads never lock and
+ * never allocate; stock updates are delegated to each product's lock-free
+ * {@link StockLevel}, so concurrent carts only contend on the SKU they share.
+ */
+public class Catalog {
+
+    private final ConcurrentHashMap<String, Product> products;
+    private final ExpiryIndex expiryIndex = new ExpiryIndex();
+    private final Set<String> removedSkus = ConcurrentHashMap.newKeySet();
+    private volatile CatalogSnapshot snapshot;
+    private volatile ProductSearchIndex searchIndex;
+
+    public Catalog() {
+        this(16);
+    }
+
+    public Catalog(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Invalid catalog size");
+        }
+        this.products = new ConcurrentHashMap<>(expectedSize);
+    }
+
+    /**
+     * Registers a product under the given SKU
+     *
+     * @return false if the SKU is invalid, taken, or the product already has another SKU
+     */
+    public boolean addProduct(String sku, Product product) {
+        if (sku == null || sku.trim().isEmpty() || product == null) {
+            return false;
+        }
+        if (this.products.putIfAbsent(sku, product) != null) {
+            return false;
+        }
+        // Claims the SKU first, so a refused add never leaves the product tagged
+        if (!product.setSku(sku)) {
+            this.products.remove(sku, product);
+            return false;
+        }
+        this.expiryIndex.add(product);
+        ProductSearchIndex index = this.searchIndex;
+        if (index != null) {
+            index.add(product);
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a search index in step with the catalog: products loaded so far are
+     * indexed now, and later ones as they are added or removed. Products still
+     * only in an attached snapshot are indexed once they are first looked up.
+     */
+    public boolean attachSearchIndex(ProductSearchIndex index) {
+        if (index == null || this.searchIndex != null) {
+            return false;
+        }
+        this.searchIndex = index;
+        for (Product product : this.products.values()) {
+            index.add(product);
+        }
+        return true;
+    }
+
+    public ProductSearchIndex getSearchIndex() {
+        return this.searchIndex;
+    }
+
+    /**
+     * Serves products from a memory-mapped snapshot; each SKU is only built
+     * into a {@link Product} the first time it is looked up
+     */
+    public boolean attachSnapshot(CatalogSnapshot snapshot) {
+        if (snapshot == null || this.snapshot != null) {
+            return false;
+        }
+        this.snapshot = snapshot;
+        return true;
+    }
+
+    CatalogSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * @return true if the SKU is loaded, or was taken off sale, so an attached snapshot's record no longer applies
+     */
+    boolean isLoadedOrRemoved(String sku) {
+        return this.products.containsKey(sku) || this.removedSkus.contains(sku);
+    }
+
+    public Product getProduct(String sku) {
+        if (sku == null) {
+            return null;
+        }
+        Product product = this.products.get(sku);
+        if (product == null && this.snapshot != null) {
+            product = loadFromSnapshot(sku);
+        }
+        return product;
+    }
+
+    private Product loadFromSnapshot(String sku) {
+        if (this.removedSkus.contains(sku)) {
+            return null;
+        }
+        int index = this.snapshot.indexOf(sku);
+        if (index < 0) {
+            return null;
+        }
+        Product loaded = this.snapshot.materialize(index);
+        if (loaded == null) {
+            return null;
+        }
+        // Another thread may have loaded the same SKU meanwhile; its instance wins
+        if (!addProduct(sku, loaded)) {
+            return this.products.get(sku);
+        }
+        // removeProduct marks the SKU before looking for it, so one that ran meanwhile is seen here
+        if (this.removedSkus.contains(sku)) {
+            if (this.products.remove(sku, loaded)) {
+                this.expiryIndex.remove(loaded);
+                unindex(loaded);
+            }
+            return null;
+        }
+        return loaded;
+    }
+
+    public boolean removeProduct(String sku) {
+        if (sku == null) {
+            return false;
+        }
+        if (this.snapshot != null) {
+            this.removedSkus.add(sku);
+        }
+        Product removed = this.products.remove(sku);
+        if (removed == null) {
+            return false;
+        }
+        this.expiryIndex.remove(removed);
+        unindex(removed);
+        return true;
+    }
+
+    private void unindex(Product product) {
+        ProductSearchIndex index = this.searchIndex;
+        if (index != null) {
+            index.remove(product);
+        }
+    }
+
+    public boolean containsProduct(String sku) {
+        return getProduct(sku) != null;
+    }
+
+    public int getQuantity(String sku) {
+        Product product = getProduct(sku);
+        return product == null ? 0 : product.getQuantity();
+    }
+
+    public boolean reserve(String sku, int quantity) {
+        Product product = getProduct(sku);
+        return product != null && product.reserveQuantity(quantity);
+    }
+
+    public boolean release(String sku, int quantity) {
+        Product product = getProduct(sku);
+        return product != null && product.releaseReservation(quantity);
+    }
+
+    /**
+     * Changes a product's expiry date and re-files it, so an earlier date is swept on time
+     */
+    public boolean setExpiryDate(String sku, LocalDate expiryDate) {
+        Product product = getProduct(sku);
+        if (!(product instanceof Expirable expirable) || !expirable.setExpiryDate(expiryDate)) {
+            return false;
+        }
+        this.expiryIndex.refile(product);
+        return true;
+    }
+
+    /**
+     * Takes every product that expired before the {@link ExpiryClock}'s current day off sale
+     *
+     * @return number of products removed
+     */
+    public int removeExpiredProducts() {
+        return this.expiryIndex.pollExpired(ExpiryClock.todayEpochDay(), product -> {
+            if (this.snapshot != null) {
+                this.removedSkus.add(product.getSku());
+            }
+            // Already removed or replaced products are not counted
+            if (!this.products.remove(product.getSku(), product)) {
+                return false;
+            }
+            unindex(product);
+            return true;
+        });
+    }
+
+    /**
+     * @return number of products loaded so far; SKUs still only in an attached snapshot are not counted
+     */
+    public int size() {
+        return this.products.size();
+    }
+
+    public Collection<Product> getProducts() {
+        return Collections.unmodifiableCollection(this.products.values());
+    }
+}
@@ -0,0 +1,356 @@
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compact, memory-mapped image of a {@link Catalog}.
+ * <p>
+ * Layout: a header ({@code magic, version, count}), then one fixed-width record
+ * per product sorted by SKU, then a heap of UTF-8 SKU, name and category bytes. Opening a
+ * snapshot only maps the file; records are read in place through the
+ * {@link Record} flyweight and turned into real {@link Product}s one SKU at a
+ * time, on first lookup, so startup cost does not grow with catalog size.
+ * A single mapping is limited to 2 GB, roughly 20 million SKUs.
+ */
+public class CatalogSnapshot {
+
+    private static final int MAGIC = 0x43415453; // "CATS"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = Integer.BYTES * 3;
+    private static final int RECORD_BYTES = 64;
+
+    private static final int KIND_SHIPPABLE = 1;
+    private static final int KIND_EXPIRABLE = 2;
+
+    // Record field offsets
+    private static final int SKU_OFFSET = 0;
+    private static final int SKU_LENGTH = 4;
+    private static final int NAME_OFFSET = 8;
+    private static final int NAME_LENGTH = 12;
+    private static final int KIND = 16;
+    private static final int QUANTITY = 20;
+    private static final int PRICE = 24;
+    private static final int SHIPPING_FEES = 32;
+    private static final int WEIGHT = 40;
+    private static final int EXPIRY_EPOCH_DAY = 48;
+    private static final int CATEGORY_OFFSET = 56;
+    private static final int CATEGORY_LENGTH = 60; // -1 when the product has no category
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private CatalogSnapshot(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a catalog snapshot");
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        if (this.size < 0 || HEADER_BYTES + (long) this.size * RECORD_BYTES > buffer.capacity()) {
+            throw new IllegalArgumentException("Truncated catalog snapshot");
+        }
+    }
+
+    /**
+     * Maps a snapshot file read-only; no record is decoded until it is looked up
+     */
+    public static CatalogSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CatalogSnapshot(mapped);
+        }
+    }
+
+    /**
+     * Writes every product in the catalog: the ones loaded, plus, when a
+     * snapshot is attached, its records that were never loaded nor removed.
+     * Reserved stock is counted as available, since the carts holding it do
+     * not survive a restart.
+     */
+    public static void write(Catalog catalog, Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Product product : catalog.getProducts()) {
+            entries.add(new Entry(product));
+        }
+        CatalogSnapshot attached = catalog.getSnapshot();
+        if (attached != null && attached.size() > 0) {
+            Record record = attached.record(0);
+            for (int i = 0; i < attached.size(); i++) {
+                record.moveTo(i);
+                String sku = record.getSku();
+                if (!catalog.isLoadedOrRemoved(sku)) {
+                    entries.add(new Entry(sku, record));
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(entry -> entry.sku));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            long heapOffset = HEADER_BYTES + (long) entries.size() * RECORD_BYTES;
+            for (Entry entry : entries) {
+                out.writeInt(Math.toIntExact(heapOffset));
+                out.writeInt(entry.skuBytes.length);
+                heapOffset += entry.skuBytes.length;
+                out.writeInt(Math.toIntExact(heapOffset));
+                out.writeInt(entry.nameBytes.length);
+                heapOffset += entry.nameBytes.length;
+                out.writeInt(entry.kind);
+                out.writeInt(entry.quantity);
+                out.writeLong(entry.priceMinor);
+                out.writeLong(entry.shippingFeesMinor);
+                out.writeDouble(entry.weight);
+                out.writeLong(entry.expiryEpochDay);
+                out.writeInt(Math.toIntExact(heapOffset));
+                if (entry.categoryBytes == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(entry.categoryBytes.length);
+                    heapOffset += entry.categoryBytes.length;
+                }
+            }
+            for (Entry entry : entries) {
+                out.write(entry.skuBytes);
+                out.write(entry.nameBytes);
+                if (entry.categoryBytes != null) {
+                    out.write(entry.categoryBytes);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Binary search over the SKU-sorted records, comparing raw UTF-8 bytes
+     *
+     * @return the record index, or -1 if the SKU is not in the snapshot
+     */
+    public int indexOf(String sku) {
+        byte[] key = sku.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareSku(mid, key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareSku(int index, byte[] key) {
+        int base = recordBase(index);
+        int offset = this.buffer.getInt(base + SKU_OFFSET);
+        int length = this.buffer.getInt(base + SKU_LENGTH);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = Byte.compareUnsigned(this.buffer.get(offset + i), key[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * Returns a reusable view positioned on a record; call {@link Record#moveTo(int)} to reuse it
+     */
+    public Record record(int index) {
+        Record record = new Record();
+        record.moveTo(index);
+        return record;
+    }
+
+    /**
+     * Builds the real product for a record
+     *
+     * @return null if the product can no longer be sold (e.g. it has expired)
+     */
+    public Product materialize(int index) {
+        Record record = record(index);
+        int stock = record.getQuantity();
+        // Products cannot be built sold-out, so build with one unit and take it back out
+        int initialStock = Math.max(stock, 1);
+        double price = Money.toMajor(record.getPriceMinor());
+        Product product;
+        try {
+            switch (record.getKind()) {
+                case KIND_SHIPPABLE -> product = new ShippableProduct(record.getName(), initialStock, price,
+                        record.getWeight(), Money.toMajor(record.getShippingFeesMinor()));
+                case KIND_EXPIRABLE -> product = new ExpirableProduct(record.getName(), initialStock, price,
+                        record.getExpiryDate());
+                case KIND_SHIPPABLE | KIND_EXPIRABLE -> product = new ExpirableShippableProduct(record.getName(),
+                        initialStock, price, record.getExpiryDate(), record.getWeight(),
+                        Money.toMajor(record.getShippingFeesMinor()));
+                default -> product = new Product(record.getName(), initialStock, price);
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (stock == 0) {
+            product.reduceQuantity(1);
+        }
+        String category = record.getCategory();
+        if (category != null) {
+            product.setCategory(category);
+        }
+        return product;
+    }
+
+    private int recordBase(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Invalid snapshot record: " + index);
+        }
+        return HEADER_BYTES + index * RECORD_BYTES;
+    }
+
+    private String readString(int offsetField, int lengthField) {
+        int offset = this.buffer.getInt(offsetField);
+        byte[] bytes = new byte[this.buffer.getInt(lengthField)];
+        this.buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One record to write, taken from a loaded product or copied from a snapshot record
+     */
+    private static class Entry {
+
+        private final String sku;
+        private final byte[] skuBytes;
+        private final byte[] nameBytes;
+        private final int kind;
+        private final int quantity;
+        private final long priceMinor;
+        private final long shippingFeesMinor;
+        private final double weight;
+        private final long expiryEpochDay;
+        private final byte[] categoryBytes;
+
+        private Entry(Product product) {
+            int kind = 0;
+            long shippingFees = 0;
+            double weight = 0.0;
+            long expiryEpochDay = 0;
+            if (product instanceof Shippable shippable) {
+                kind |= KIND_SHIPPABLE;
+                shippingFees = shippable.getShippingFeesMinor();
+                weight = shippable.getWeight();
+            }
+            if (product instanceof Expirable expirable) {
+                kind |= KIND_EXPIRABLE;
+                expiryEpochDay = expirable.getExpiryDate().toEpochDay();
+            }
+            this.sku = product.getSku();
+            this.skuBytes = this.sku.getBytes(StandardCharsets.UTF_8);
+            this.nameBytes = product.getName().getBytes(StandardCharsets.UTF_8);
+            this.kind = kind;
+            this.quantity = product.getQuantity() + product.getReservedQuantity();
+            this.priceMinor = product.getPriceMinor();
+            this.shippingFeesMinor = shippingFees;
+            this.weight = weight;
+            this.expiryEpochDay = expiryEpochDay;
+            this.categoryBytes = product.getCategory() == null ? null
+                    : product.getCategory().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private Entry(String sku, Record record) {
+            this.sku = sku;
+            this.skuBytes = sku.getBytes(StandardCharsets.UTF_8);
+            this.nameBytes = record.getName().getBytes(StandardCharsets.UTF_8);
+            this.kind = record.getKind();
+            this.quantity = record.getQuantity();
+            this.priceMinor = record.getPriceMinor();
+            this.shippingFeesMinor = record.getShippingFeesMinor();
+            this.weight = record.getWeight();
+            LocalDate expiryDate = record.getExpiryDate();
+            this.expiryEpochDay = expiryDate == null ? 0 : expiryDate.toEpochDay();
+            String category = record.getCategory();
+            this.categoryBytes = category == null ? null : category.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Flyweight over one record of the mapped file; reading a numeric field never allocates
+     */
+    public class Record {
+
+        private int base;
+
+        public void moveTo(int index) {
+            this.base = recordBase(index);
+        }
+
+        public String getSku() {
+            return readString(this.base + SKU_OFFSET, this.base + SKU_LENGTH);
+        }
+
+        public String getName() {
+            return readString(this.base + NAME_OFFSET, this.base + NAME_LENGTH);
+        }
+
+        public int getKind() {
+            return buffer.getInt(this.base + KIND);
+        }
+
+        public boolean isShippable() {
+            return (getKind() & KIND_SHIPPABLE) != 0;
+        }
+
+        public boolean isExpirable() {
+            return (getKind() & KIND_EXPIRABLE) != 0;
+        }
+
+        public int getQuantity() {
+            return buffer.getInt(this.base + QUANTITY);
+        }
+
+        public long getPriceMinor() {
+            return buffer.getLong(this.base + PRICE);
+        }
+
+        public long getShippingFeesMinor() {
+            return buffer.getLong(this.base + SHIPPING_FEES);
+        }
+
+        public double getWeight() {
+            return buffer.getDouble(this.base + WEIGHT);
+        }
+
+        public LocalDate getExpiryDate() {
+            return isExpirable() ? LocalDate.ofEpochDay(buffer.getLong(this.base + EXPIRY_EPOCH_DAY)) : null;
+        }
+
+        /**
+         * @return the category pricing rules target, or null if the product has none
+         */
+        public String getCategory() {
+            if (buffer.getInt(this.base + CATEGORY_LENGTH) < 0) {
+                return null;
+            }
+            return readString(this.base + CATEGORY_OFFSET, this.base + CATEGORY_LENGTH);
+        }
+    }
+}
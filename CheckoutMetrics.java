@@ -0,0 +1,91 @@
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters for the checkout path.
+ * <p>
+ * Recording is a {@link System#nanoTime()} pair plus lock-free increments, so
+ * it is safe to leave on in production. Read the numbers with {@link #report()},
+ * a {@link MetricsReporter}, or the checkout server's {@code /metrics} endpoint.
+ */
+public class CheckoutMetrics {
+
+    public enum Stage {
+        VALIDATION, SHIPPING_CALCULATION, RECEIPT_RENDERING, RECEIPT_DISPATCH, CHECKOUT
+    }
+
+    public enum Rejection {
+        EMPTY_CART, CHECKED_OUT_CART, INVALID_ORDER, INVALID_CUSTOMER, INVALID_SHIPPING, INSUFFICIENT_BALANCE, INVALID_STOCK, ITEM_REFUSED
+    }
+
+    private static final CheckoutMetrics GLOBAL = new CheckoutMetrics();
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+    private final Map<Rejection, LongAdder> rejections = new EnumMap<>(Rejection.class);
+    private final LongAdder completedCheckouts = new LongAdder();
+
+    public CheckoutMetrics() {
+        for (Stage stage : Stage.values()) {
+            this.latencies.put(stage, new LatencyHistogram());
+        }
+        for (Rejection rejection : Rejection.values()) {
+            this.rejections.put(rejection, new LongAdder());
+        }
+    }
+
+    public static CheckoutMetrics global() {
+        return GLOBAL;
+    }
+
+    public void recordSince(Stage stage, long startNanos) {
+        this.latencies.get(stage).recordSince(startNanos);
+    }
+
+    public void recordRejection(Rejection rejection) {
+        this.rejections.get(rejection).increment();
+    }
+
+    public void recordCompletedCheckout() {
+        this.completedCheckouts.increment();
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return this.latencies.get(stage);
+    }
+
+    public long getRejections(Rejection rejection) {
+        return this.rejections.get(rejection).sum();
+    }
+
+    public long getCompletedCheckouts() {
+        return this.completedCheckouts.sum();
+    }
+
+    /**
+     * Plain-text dump, one metric per line, latencies in microseconds
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("checkouts.completed ").append(getCompletedCheckouts()).append('\n');
+        for (Rejection rejection : Rejection.values()) {
+            report.append("rejections.").append(rejection.name().toLowerCase(Locale.ROOT)).append(' ')
+                    .append(getRejections(rejection)).append('\n');
+        }
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = this.latencies.get(stage);
+            report.append(String.format(Locale.ROOT,
+                    "latency.%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                    stage.name().toLowerCase(Locale.ROOT),
+                    histogram.getCount(),
+                    histogram.getMeanNanos() / 1000,
+                    histogram.getPercentileNanos(50) / 1000.0,
+                    histogram.getPercentileNanos(99) / 1000.0,
+                    histogram.getPercentileNanos(99.9) / 1000.0,
+                    histogram.getMaxNanos() / 1000.0));
+        }
+        return report.toString();
+    }
+}
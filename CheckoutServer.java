@@ -0,0 +1,330 @@
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-running checkout front end over local HTTP.
+ * <p>
+ * Every request runs on its own virtual thread when the JVM supports them
+ * (Java 21+), otherwise on a cached thread pool. All sessions share one
+ * {@link Catalog}, so carts from different sessions compete for the same stock.
+ * Carts hold their stock through {@link StockHolds} for the session timeout,
+ * and sessions left idle that long are closed and their carts emptied, so an
+ * abandoned session never keeps stock off the shelf for good.
+ * <ul>
+ *     <li>{@code POST /session?customer=NAME&balance=AMOUNT} - opens a session and returns its id</li>
+ *     <li>{@code POST /cart/add?session=ID&sku=SKU&quantity=N} - adds an item to the session's cart</li>
+ *     <li>{@code GET /quote?session=ID} - totals and receipt preview for the cart, served from a {@link QuoteCache}</li>
+ *     <li>{@code POST /checkout?session=ID} - checks out and returns the receipt, closing the session</li>
+ *     <li>{@code GET /metrics} - checkout latency and rejection counters</li>
+ * </ul>
+ * Malformed or refused requests are answered with 409, unexpected failures with 500.
+ */
+public class CheckoutServer implements AutoCloseable {
+
+    private final Catalog catalog;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionId = new AtomicLong();
+    private final QuoteCache quoteCache = new QuoteCache(10_000);
+    private final long sessionTimeoutNanos;
+    private final StockHolds stockHolds;
+    private final ScheduledExecutorService sessionReaper;
+    private final LongAdder expiredSessions = new LongAdder();
+
+    public CheckoutServer(Catalog catalog, int port) throws IOException {
+        this(catalog, port, 30, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param sessionTimeout how long a session may sit idle, and its cart hold stock, before it is closed
+     */
+    public CheckoutServer(Catalog catalog, int port, long sessionTimeout, TimeUnit unit) throws IOException {
+        if (catalog == null) {
+            throw new IllegalArgumentException("Invalid catalog");
+        }
+        if (sessionTimeout <= 0 || unit == null) {
+            throw new IllegalArgumentException("Invalid session timeout");
+        }
+        this.catalog = catalog;
+        this.sessionTimeoutNanos = unit.toNanos(sessionTimeout);
+        long tickNanos = Math.max(1, this.sessionTimeoutNanos / 16);
+        this.stockHolds = new StockHolds(this.sessionTimeoutNanos, tickNanos, TimeUnit.NANOSECONDS);
+        this.sessionReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sessionReaper.scheduleAtFixedRate(this::reapIdleSessions, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/session", exchange -> handle(exchange, this::openSession));
+        this.server.createContext("/cart/add", exchange -> handle(exchange, this::addToCart));
+        this.server.createContext("/quote", exchange -> handle(exchange, "GET", this::quote));
+        this.server.createContext("/checkout", exchange -> handle(exchange, this::checkout));
+        this.server.createContext("/metrics", exchange -> handle(exchange, "GET", query -> CheckoutMetrics.global().report()));
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public int getOpenSessions() {
+        return this.sessions.size();
+    }
+
+    public QuoteCache getQuoteCache() {
+        return this.quoteCache;
+    }
+
+    /**
+     * @return sessions closed for sitting idle past the session timeout
+     */
+    public long getExpiredSessions() {
+        return this.expiredSessions.sum();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.sessionReaper.shutdownNow();
+        this.stockHolds.close();
+    }
+
+    /**
+     * One virtual thread per task where available, otherwise a cached pool of platform threads
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private String openSession(Map<String, String> query) {
+        String customerName = query.get("customer");
+        Cart cart = new Cart();
+        cart.setStockHolds(this.stockHolds);
+        Customer customer = new Customer(customerName, parseDouble(query.get("balance"), "Invalid balance"), cart);
+        String id = Long.toString(this.nextSessionId.incrementAndGet());
+        this.sessions.put(id, new Session(customer, cart));
+        return id;
+    }
+
+    private String addToCart(Map<String, String> query) {
+        Session session = getSession(query);
+        Product product = this.catalog.getProduct(query.get("sku"));
+        if (product == null) {
+            throw new IllegalArgumentException("Unknown product");
+        }
+        int quantity = parseInt(query.get("quantity"), "Invalid quantity");
+        synchronized (session) {
+            requireOpen(session);
+            if (!session.cart.addItem(product, quantity)) {
+                throw new IllegalArgumentException("Insufficient stock");
+            }
+        }
+        return "OK";
+    }
+
+    private String quote(Map<String, String> query) {
+        Session session = getSession(query);
+        synchronized (session) {
+            requireOpen(session);
+            return this.quoteCache.quote(session.cart).getReceipt();
+        }
+    }
+
+    /**
+     * Checks out and closes the session under its lock, so a retried or
+     * concurrent request for the same session finds it closed instead of
+     * charging the cart again. A failed checkout leaves the session open.
+     */
+    private String checkout(Map<String, String> query) {
+        Session session = getSession(query);
+        StringBuilder receipt = new StringBuilder();
+        synchronized (session) {
+            requireOpen(session);
+            CheckoutService checkout = new CheckoutService(session.cart, session.customer, session.shippingService);
+            checkout.checkout(receipt);
+            session.closed = true;
+        }
+        this.sessions.remove(query.get("session"), session);
+        return receipt.toString();
+    }
+
+    /**
+     * Also marks the session as used; callers hold the session's lock
+     */
+    private static void requireOpen(Session session) {
+        if (session.closed) {
+            throw new IllegalArgumentException("Unknown session");
+        }
+        session.lastUsedNanos = System.nanoTime();
+    }
+
+    /**
+     * Closes sessions idle past the timeout and returns their carts' stock to the shelf
+     */
+    private void reapIdleSessions() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Session> entry : this.sessions.entrySet()) {
+            Session session = entry.getValue();
+            synchronized (session) {
+                if (session.closed || now - session.lastUsedNanos < this.sessionTimeoutNanos) {
+                    continue;
+                }
+                session.closed = true;
+                for (Map.Entry<Product, Integer> line : new ArrayList<>(session.cart.getItems().entrySet())) {
+                    session.cart.removeItem(line.getKey(), line.getValue());
+                }
+            }
+            this.sessions.remove(entry.getKey(), session);
+            this.expiredSessions.increment();
+        }
+    }
+
+    private Session getSession(Map<String, String> query) {
+        String id = query.get("session");
+        Session session = id == null ? null : this.sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("Unknown session");
+        }
+        return session;
+    }
+
+    private static double parseDouble(String value, String error) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    private static int parseInt(String value, String error) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    private interface Endpoint {
+        String respond(Map<String, String> query);
+    }
+
+    private static void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        handle(exchange, "POST", endpoint);
+    }
+
+    private static void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        int status;
+        String body;
+        if (!method.equals(exchange.getRequestMethod())) {
+            status = 405;
+            body = "Method not allowed";
+        } else {
+            try {
+                body = endpoint.respond(parseQuery(exchange.getRequestURI().getRawQuery()));
+                status = 200;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                body = String.valueOf(e.getMessage());
+                status = 409;
+            } catch (RuntimeException e) {
+                body = "Internal server error";
+                status = 500;
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static class Session {
+
+        private final Customer customer;
+        private final Cart cart;
+        private final ShippingService shippingService;
+        // Guarded by the session's monitor
+        private boolean closed;
+        private long lastUsedNanos = System.nanoTime();
+
+        private Session(Customer customer, Cart cart) {
+            this.customer = customer;
+            this.cart = cart;
+            this.shippingService = new ShippingService(cart);
+        }
+    }
+
+    /**
+     * Starts a server on {@code args[0]} (default 8080) with a demo catalog and sweeps expired stock hourly
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        Catalog catalog = demoCatalog(1_000_000);
+        ExpirySweeper sweeper = new ExpirySweeper(catalog, 1, TimeUnit.HOURS);
+        try (sweeper; CheckoutServer server = new CheckoutServer(catalog, port)) {
+            server.start();
+            System.out.println("Checkout server listening on http://127.0.0.1:" + server.getPort());
+            Thread.currentThread().join();
+        }
+    }
+
+    /**
+     * A small catalog covering every product type, each SKU stocked with {@code stock} units
+     */
+    static Catalog demoCatalog(int stock) {
+        Catalog catalog = new Catalog();
+        catalog.addProduct("EBOOK", new Product("E-Book", stock, 25.0));
+        catalog.addProduct("LAPTOP", new ShippableProduct("Laptop", stock, 999.99, 2.5, 50.0));
+        catalog.addProduct("MILK", new ExpirableProduct("Milk", stock, 5.99, LocalDate.now().plusDays(7)));
+        catalog.addProduct("CHEESE", new ExpirableShippableProduct(
+                "Aged Cheese", stock, 15.99, LocalDate.now().plusDays(30), 0.5, 8.99));
+        return catalog;
+    }
+}
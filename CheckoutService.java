@@ -1,25 +1,127 @@
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class CheckoutService {
 
+    private static final ThreadLocal<ReceiptRenderer> RENDERERS = ThreadLocal.withInitial(ReceiptRenderer::new);
+
     private Cart cart;
+    private StoreCart storeCart;
     private Customer customer;
     private ShippingService shippingService;
+    private OrderLog orderLog;
+    private ShipmentPlanner shipmentPlanner;
+    private ShardedInventory inventory;
+    private ReceiptDispatcher receiptDispatcher;
+    private boolean completed;
+    private long chargedDiscountMinor;
 
     public CheckoutService(Cart cart, Customer customer, ShippingService shippingService) {
+        long start = System.nanoTime();
         if (!setCart(cart)) {
-            throw new IllegalArgumentException("Cart cannot be empty");
+            throw reject(CheckoutMetrics.Rejection.EMPTY_CART, "Cart cannot be empty");
+        }
+        if (cart.isCheckedOut()) {
+            throw reject(CheckoutMetrics.Rejection.CHECKED_OUT_CART, "Cart already checked out");
+        }
+        if (!setCustomer(customer)) {
+            throw reject(CheckoutMetrics.Rejection.INVALID_CUSTOMER, "Invalid customer");
+        }
+        if (!setShippingService(shippingService)) {
+            throw reject(CheckoutMetrics.Rejection.INVALID_SHIPPING, "Invalid shipping service");
+        }
+        if (!isSufficientBalance()) {
+            throw reject(CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE, "Insufficient customer balance for this purchase");
+        }
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.VALIDATION, start);
+    }
+
+    /**
+     * Checks out a cart of {@link ProductStore} handles. Its stock is committed in
+     * the store; order logs, inventory shards and parcel planning take
+     * {@link Product}s and are not available for it.
+     */
+    public CheckoutService(StoreCart cart, Customer customer, ShippingService shippingService) {
+        long start = System.nanoTime();
+        if (cart == null || cart.isEmpty()) {
+            throw reject(CheckoutMetrics.Rejection.EMPTY_CART, "Cart cannot be empty");
+        }
+        if (cart.isCheckedOut()) {
+            throw reject(CheckoutMetrics.Rejection.CHECKED_OUT_CART, "Cart already checked out");
         }
+        this.storeCart = cart;
         if (!setCustomer(customer)) {
-            throw new IllegalArgumentException("Invalid customer");
+            throw reject(CheckoutMetrics.Rejection.INVALID_CUSTOMER, "Invalid customer");
         }
         if (!setShippingService(shippingService)) {
-            throw new IllegalArgumentException("Invalid shipping service");
+            throw reject(CheckoutMetrics.Rejection.INVALID_SHIPPING, "Invalid shipping service");
         }
         if (!isSufficientBalance()) {
-            throw new IllegalArgumentException("Insufficient customer balance for this purchase");
+            throw reject(CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE, "Insufficient customer balance for this purchase");
+        }
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.VALIDATION, start);
+    }
+
+    private static IllegalArgumentException reject(CheckoutMetrics.Rejection reason, String message) {
+        CheckoutMetrics.global().recordRejection(reason);
+        return new IllegalArgumentException(message);
+    }
+
+    /**
+     * Same as the three-argument constructor, but every completed checkout is
+     * also written to the order log before its receipt is produced
+     */
+    public CheckoutService(Cart cart, Customer customer, ShippingService shippingService, OrderLog orderLog) {
+        this(cart, customer, shippingService);
+        if (orderLog == null) {
+            throw new IllegalArgumentException("Invalid order log");
+        }
+        // Logged lines are keyed by SKU, so uncatalogued products cannot be replayed
+        cart.forEachItem((product, quantity) -> {
+            if (product.getSku() == null) {
+                throw new IllegalArgumentException("Product is not in the catalog: " + product.getName());
+            }
+        });
+        this.orderLog = orderLog;
+    }
+
+    /**
+     * Splits the shipment notice into parcels planned by the given planner
+     */
+    public boolean setShipmentPlanner(ShipmentPlanner shipmentPlanner) {
+        if (shipmentPlanner != null && this.storeCart == null) {
+            this.shipmentPlanner = shipmentPlanner;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sells the cart's stock from the inventory shards owning its SKUs, through
+     * two-phase commit. The shards own that stock: local reservations only gate
+     * the cart's holds and are released, not committed, once the shards commit.
+     */
+    public boolean setInventory(ShardedInventory inventory) {
+        if (inventory != null && this.storeCart == null) {
+            this.inventory = inventory;
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Hands the receipt to the dispatcher's workers instead of writing it on the
+     * checkout thread, so a slow sink does not hold up the checkout
+     */
+    public boolean setReceiptDispatcher(ReceiptDispatcher receiptDispatcher) {
+        if (receiptDispatcher != null) {
+            this.receiptDispatcher = receiptDispatcher;
+            return true;
+        }
+        return false;
     }
 
     private boolean setCart(Cart cart) {
@@ -47,94 +149,238 @@ public class CheckoutService {
     }
 
     private boolean isSufficientBalance() {
-        return this.customer.getBalance() >= this.cart.getTotalPrice() + this.shippingService.getTotalShippingFees();
+        try {
+            long total = amountDue(currentDiscountMinor());
+            return this.customer.getBalanceMinor() >= total;
+        } catch (ArithmeticException e) {
+            return false;
+        }
     }
 
-    public void generateReceipt() {
-        StringBuilder receipt = new StringBuilder();
-
-        // Generate shipment notice
-        receipt.append(generateShipmentNotice());
-        receipt.append("\n\n");
+    /**
+     * @return subtotal less the discount, plus shipping
+     */
+    private long amountDue(long discountMinor) {
+        long subtotal = this.storeCart != null ? this.storeCart.getTotalPriceMinor() : cart.getTotalPriceMinor();
+        return Money.add(Money.subtract(subtotal, discountMinor), shippingService.getTotalShippingFeesMinor());
+    }
 
-        // Generate checkout receipt
-        receipt.append(generateCheckoutReceipt());
+    /**
+     * @return the cart's discount under its pricing engine; store carts are not discounted
+     */
+    private long currentDiscountMinor() {
+        return this.storeCart != null ? 0 : cart.getDiscountMinor();
+    }
 
-        // Print the receipt to console
-        System.out.println(receipt.toString() + "\n");
+    /**
+     * Commits the stock reserved by the cart and prints the receipt
+     */
+    public void checkout() {
+        checkout(System.out);
     }
 
     /**
-     * Generates shipment notice for shippable items only
-     *
-     * @return formatted shipment notice string
+     * Debits the customer's wallet, commits the stock reserved by the cart and
+     * writes the receipt to the given sink, or queues it on the receipt
+     * dispatcher if one is set. If a stock hold has expired, or the stock
+     * commit, the shard prepare or the order log fail, the committed stock and
+     * the debit are both rolled back. Once the order is logged, the shard
+     * commit can no longer fail it. A cart can only be checked out
+     * once; afterwards it is sealed and refused by every checkout.
+     * The cart's discount is fixed when the wallet is debited, so pricing rules
+     * published afterwards do not change what the receipt shows.
      */
-    private String generateShipmentNotice() {
-        StringBuilder notice = new StringBuilder();
-        notice.append("** Shipment notice **\n");
-
-        // Get cart items and iterate through them
-        Map<Product, Integer> cartItems = cart.getItems();
-
-        for (Map.Entry<Product, Integer> entry : cartItems.entrySet()) {
-            Product product = entry.getKey();
-            Integer quantity = entry.getValue();
-
-            // Only include shippable items in shipment notice
-            if (product instanceof Shippable shippableProduct) {
-                double itemWeight = shippableProduct.getWeight() * quantity;
-
-                // Format: "1x Cheese    200g"
-                notice.append(String.format("%dx %-12s %.0fg%n",
-                        quantity,
-                        product.getName(),
-                        itemWeight * 1000)); // Convert kg to grams
+    public void checkout(Appendable out) {
+        if (this.completed) {
+            throw new IllegalStateException("Checkout already completed");
+        }
+        if (this.storeCart != null) {
+            checkoutStoreCart(out);
+            return;
+        }
+        long start = System.nanoTime();
+        // Another checkout of the same cart would charge again and sell other carts' reserved stock
+        if (!cart.claimCheckout()) {
+            throw reject(CheckoutMetrics.Rejection.CHECKED_OUT_CART, "Cart already checked out");
+        }
+        long discount = cart.getDiscountMinor();
+        long total = amountDue(discount);
+        Wallet wallet = customer.getWallet();
+        if (!wallet.tryDebit(total)) {
+            cart.releaseCheckout();
+            throw reject(CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE, "Insufficient customer balance for this purchase");
+        }
+        try {
+            if (!cart.claimHolds()) {
+                CheckoutMetrics.global().recordRejection(CheckoutMetrics.Rejection.INVALID_STOCK);
+                throw new IllegalStateException("Stock hold expired");
+            }
+            ShardedInventory.Transaction shards = null;
+            try {
+                if (this.inventory != null) {
+                    shards = this.inventory.prepare(cart);
+                    if (shards == null) {
+                        CheckoutMetrics.global().recordRejection(CheckoutMetrics.Rejection.INVALID_STOCK);
+                        throw new IllegalStateException("Insufficient stock on inventory shard");
+                    }
+                }
+                if (shards == null) {
+                    commitReservations();
+                }
+                try {
+                    if (this.orderLog != null) {
+                        awaitDurable(this.orderLog.append(customer, cart, shippingService, discount));
+                    }
+                } catch (RuntimeException e) {
+                    if (shards == null) {
+                        revertCommits(cart.getLineCount());
+                    }
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                if (shards != null) {
+                    abortQuietly(shards, e);
+                }
+                cart.restoreHolds();
+                throw e;
+            }
+            if (shards != null) {
+                // The order is decided (and logged): unreachable shards are retried, never aborted
+                shards.commit();
+                cart.forEachItem((product, quantity) -> product.releaseReservation(quantity));
             }
+            cart.finishHolds();
+        } catch (RuntimeException e) {
+            wallet.credit(total);
+            cart.releaseCheckout();
+            throw e;
         }
-
-        // Add total package weight
-        double totalWeightKg = shippingService.getTotalWeight();
-        notice.append(String.format("Total package weight %.1fkg", totalWeightKg));
-
-        return notice.toString();
+        // The cart is sealed, so its shipping totals are final
+        shippingService.close();
+        this.chargedDiscountMinor = discount;
+        this.completed = true;
+        deliverReceipt(out);
+        CheckoutMetrics.global().recordCompletedCheckout();
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.CHECKOUT, start);
     }
 
     /**
-     * Generates checkout receipt for all items
-     *
-     * @return formatted checkout receipt string
+     * Same debit, commit and rollback as {@link #checkout(Appendable)}, with the
+     * stock committed in the cart's product store
      */
-    private String generateCheckoutReceipt() {
-        StringBuilder receipt = new StringBuilder();
-        receipt.append("** Checkout receipt **\n");
+    private void checkoutStoreCart(Appendable out) {
+        long start = System.nanoTime();
+        // Selling the same lines twice would take units reserved by other carts from the store's shared pool
+        if (!this.storeCart.claimCheckout()) {
+            throw reject(CheckoutMetrics.Rejection.CHECKED_OUT_CART, "Cart already checked out");
+        }
+        long total = amountDue(0);
+        Wallet wallet = customer.getWallet();
+        if (!wallet.tryDebit(total)) {
+            this.storeCart.releaseCheckout();
+            throw reject(CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE, "Insufficient customer balance for this purchase");
+        }
+        ProductStore store = this.storeCart.getStore();
+        int[] committed = new int[1];
+        try {
+            this.storeCart.forEachItem((handle, quantity) -> {
+                if (!store.commitReservation(handle, quantity)) {
+                    CheckoutMetrics.global().recordRejection(CheckoutMetrics.Rejection.INVALID_STOCK);
+                    throw new IllegalStateException("Reserved stock is no longer available");
+                }
+                committed[0]++;
+            });
+        } catch (RuntimeException e) {
+            int[] remaining = {committed[0]};
+            this.storeCart.forEachItem((handle, quantity) -> {
+                if (remaining[0]-- > 0) {
+                    store.revertCommittedReservation(handle, quantity);
+                }
+            });
+            wallet.credit(total);
+            this.storeCart.releaseCheckout();
+            throw e;
+        }
+        this.completed = true;
+        deliverReceipt(out);
+        CheckoutMetrics.global().recordCompletedCheckout();
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.CHECKOUT, start);
+    }
 
-        // Get cart items and iterate through them
-        Map<Product, Integer> cartItems = cart.getItems();
+    private void deliverReceipt(Appendable out) {
+        if (this.receiptDispatcher != null) {
+            this.receiptDispatcher.dispatch(this, out);
+        } else {
+            generateReceipt(out);
+        }
+    }
 
-        for (Map.Entry<Product, Integer> entry : cartItems.entrySet()) {
-            Product product = entry.getKey();
-            Integer quantity = entry.getValue();
-            double itemTotal = product.getPrice() * quantity;
+    private static void abortQuietly(ShardedInventory.Transaction shards, RuntimeException cause) {
+        try {
+            shards.abort();
+        } catch (UncheckedIOException e) {
+            cause.addSuppressed(e);
+        }
+    }
 
-            // Format: "2x Cheese    200"
-            receipt.append(String.format("%dx %-12s %.0f%n",
-                    quantity,
-                    product.getName(),
-                    itemTotal));
+    private static void awaitDurable(CompletableFuture<Void> written) {
+        try {
+            written.join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException("Failed to log checkout", e.getCause() instanceof IOException io
+                    ? io : new IOException(e.getCause()));
         }
+    }
 
-        // Add separator line
-        receipt.append("----------------------\n");
+    /**
+     * Commits every line or none: a failed line reverts the lines committed before it
+     */
+    private void commitReservations() {
+        int[] committed = new int[1];
+        cart.forEachItem((product, quantity) -> {
+            if (!product.commitReservation(quantity)) {
+                revertCommits(committed[0]);
+                CheckoutMetrics.global().recordRejection(CheckoutMetrics.Rejection.INVALID_STOCK);
+                throw new IllegalStateException("Reserved stock is no longer available");
+            }
+            committed[0]++;
+        });
+    }
 
-        // Add totals
-        double subtotal = cart.getTotalPrice();
-        double shipping = shippingService.getTotalShippingFees();
-        double total = subtotal + shipping;
+    private void revertCommits(int lines) {
+        int[] remaining = {lines};
+        cart.forEachItem((product, quantity) -> {
+            if (remaining[0]-- > 0) {
+                product.revertCommittedReservation(quantity);
+            }
+        });
+    }
 
-        receipt.append(String.format("%-12s %.0f%n", "Subtotal", subtotal));
-        receipt.append(String.format("%-12s %.0f%n", "Shipping", shipping));
-        receipt.append(String.format("%-12s %.0f", "Amount", total));
+    public void generateReceipt() {
+        generateReceipt(System.out);
+    }
 
-        return receipt.toString();
+    /**
+     * Writes the shipment notice and checkout receipt to any sink, such as
+     * {@code System.out}, a file {@code Writer} or an in-memory {@code StringBuilder}
+     *
+     * @param out destination of the rendered receipt
+     */
+    public void generateReceipt(Appendable out) {
+        if (out == null) {
+            throw new IllegalArgumentException("Invalid receipt output");
+        }
+        long start = System.nanoTime();
+        try {
+            if (this.storeCart != null) {
+                RENDERERS.get().render(this.storeCart, shippingService, out);
+            } else {
+                long discount = this.completed ? this.chargedDiscountMinor : cart.getDiscountMinor();
+                RENDERERS.get().render(cart, shippingService, discount, shipmentPlanner, out);
+            }
+            CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.RECEIPT_RENDERING, start);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write receipt", e);
+        }
     }
 }
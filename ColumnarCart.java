@@ -0,0 +1,196 @@
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cart for very large orders, storing its lines in parallel primitive columns.
+ * <p>
+ * Lines live in a {@code Product[]} column and an {@code int[]} quantity column,
+ * in insertion order, with an open-addressing identity index from product to
+ * line number. Adding to an existing line never allocates or boxes. The
+ * {@link #getItems()} map view is only built when asked for, and cached until
+ * the next change; {@link #forEachItem(CartLineConsumer)} walks the columns directly.
+ */
+public class ColumnarCart extends Cart {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Product[] products;
+    private int[] quantities;
+    private int lines;
+    private int liveLines;
+    // Line number + 1 per slot, 0 marks an empty slot
+    private int[] index;
+    private Map<Product, Integer> itemsView;
+
+    public ColumnarCart() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ColumnarCart(int expectedLines) {
+        if (expectedLines < 0) {
+            throw new IllegalArgumentException("Invalid cart size");
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, expectedLines);
+        this.products = new Product[capacity];
+        this.quantities = new int[capacity];
+        this.index = new int[tableSizeFor(capacity)];
+    }
+
+    @Override
+    protected void addLine(Product item, int quantity) {
+        int slot = findSlot(item);
+        int line = this.index[slot] - 1;
+        if (line < 0) {
+            appendLine(item, quantity);
+        } else if (this.quantities[line] > 0) {
+            this.quantities[line] += quantity;
+        } else {
+            // A re-added item goes to the end, as in Cart; its emptied line is dropped on the next compaction
+            appendColumns(item, quantity);
+            this.index[slot] = this.lines;
+            growIndexIfNeeded();
+        }
+        this.itemsView = null;
+    }
+
+    @Override
+    protected void removeLine(Product item, int quantity) {
+        int line = findLine(item);
+        this.quantities[line] -= quantity;
+        if (this.quantities[line] == 0) {
+            this.liveLines--;
+            // Emptied lines stay in the columns until they make up half of them
+            if (this.lines - this.liveLines > this.lines / 2) {
+                compact();
+            }
+        }
+        this.itemsView = null;
+    }
+
+    @Override
+    public int getItemQuantity(Product item) {
+        int line = item == null ? -1 : findLine(item);
+        return line < 0 ? 0 : this.quantities[line];
+    }
+
+    @Override
+    public void forEachItem(CartLineConsumer consumer) {
+        for (int line = 0; line < this.lines; line++) {
+            if (this.quantities[line] > 0) {
+                consumer.accept(this.products[line], this.quantities[line]);
+            }
+        }
+    }
+
+    @Override
+    public int getLineCount() {
+        return this.liveLines;
+    }
+
+    @Override
+    public Map<Product, Integer> getItems() {
+        Map<Product, Integer> view = this.itemsView;
+        if (view == null) {
+            Map<Product, Integer> items = new LinkedHashMap<>(this.liveLines * 4 / 3 + 1);
+            forEachItem(items::put);
+            view = Collections.unmodifiableMap(items);
+            this.itemsView = view;
+        }
+        return view;
+    }
+
+    private void appendLine(Product item, int quantity) {
+        appendColumns(item, quantity);
+        if (this.lines * 2 > this.index.length) {
+            rebuildIndex(this.index.length * 2);
+        } else {
+            insertIndex(this.lines - 1);
+        }
+    }
+
+    private void appendColumns(Product item, int quantity) {
+        if (this.lines == this.products.length) {
+            int capacity = this.products.length * 2;
+            this.products = Arrays.copyOf(this.products, capacity);
+            this.quantities = Arrays.copyOf(this.quantities, capacity);
+        }
+        this.products[this.lines] = item;
+        this.quantities[this.lines] = quantity;
+        this.lines++;
+        this.liveLines++;
+    }
+
+    private void growIndexIfNeeded() {
+        if (this.lines * 2 > this.index.length) {
+            rebuildIndex(this.index.length * 2);
+        }
+    }
+
+    private int findLine(Product item) {
+        return this.index[findSlot(item)] - 1;
+    }
+
+    /**
+     * @return the index slot holding the item's line, or the empty slot where it would go
+     */
+    private int findSlot(Product item) {
+        int mask = this.index.length - 1;
+        for (int slot = hash(item) & mask; ; slot = (slot + 1) & mask) {
+            int entry = this.index[slot];
+            if (entry == 0 || this.products[entry - 1] == item) {
+                return slot;
+            }
+        }
+    }
+
+    private void insertIndex(int line) {
+        int mask = this.index.length - 1;
+        int slot = hash(this.products[line]) & mask;
+        while (this.index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        this.index[slot] = line + 1;
+    }
+
+    /**
+     * Indexes the live lines only, so an item never has an emptied line shadowing its current one
+     */
+    private void rebuildIndex(int tableSize) {
+        this.index = new int[tableSize];
+        for (int line = 0; line < this.lines; line++) {
+            if (this.quantities[line] > 0) {
+                insertIndex(line);
+            }
+        }
+    }
+
+    /**
+     * Drops emptied lines, keeping the remaining ones in insertion order
+     */
+    private void compact() {
+        int kept = 0;
+        for (int line = 0; line < this.lines; line++) {
+            if (this.quantities[line] > 0) {
+                this.products[kept] = this.products[line];
+                this.quantities[kept] = this.quantities[line];
+                kept++;
+            }
+        }
+        Arrays.fill(this.products, kept, this.lines, null);
+        Arrays.fill(this.quantities, kept, this.lines, 0);
+        this.lines = kept;
+        rebuildIndex(this.index.length);
+    }
+
+    private static int hash(Product item) {
+        int h = System.identityHashCode(item);
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int lines) {
+        return Integer.highestOneBit(Math.max(lines, 2) * 2 - 1) * 2;
+    }
+}
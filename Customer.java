@@ -2,7 +2,7 @@
 public class Customer {
 
     private String name;
-    private double balance;
+    private Wallet wallet;
 
     public Customer(String name, double balance, Cart cart) {
         if (!setName(name)) {
@@ -14,6 +14,19 @@ public class Customer {
         }
     }
 
+    /**
+     * Customer paying from an existing wallet, which may be shared with other customers
+     */
+    public Customer(String name, Wallet wallet) {
+        if (!setName(name)) {
+            throw new IllegalArgumentException("Invalid name");
+        }
+        if (wallet == null) {
+            throw new IllegalArgumentException("Invalid wallet");
+        }
+        this.wallet = wallet;
+    }
+
     private boolean setName(String name) {
         if (name != null && !name.trim().isEmpty()) {
             this.name = name;
@@ -23,8 +36,8 @@ public class Customer {
     }
 
     private boolean setBalance(double balance) {
-        if (balance > 0) {
-            this.balance = balance;
+        if (Money.isPositiveAmount(balance)) {
+            this.wallet = new Wallet(Money.ofMajor(balance));
             return true;
         }
         return false;
@@ -35,6 +48,14 @@ public class Customer {
     }
 
     public double getBalance() {
-        return this.balance;
+        return Money.toMajor(this.wallet.getBalanceMinor());
+    }
+
+    public long getBalanceMinor() {
+        return this.wallet.getBalanceMinor();
+    }
+
+    public Wallet getWallet() {
+        return this.wallet;
     }
 }
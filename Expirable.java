@@ -5,5 +5,7 @@ public interface Expirable {
 
     boolean isExpired();
 
+    LocalDate getExpiryDate();
+
     boolean setExpiryDate(LocalDate expiryDate);
 }
@@ -14,7 +14,7 @@ public class ExpirableProduct extends Product implements Expirable {
 
     @Override
     public boolean setExpiryDate(LocalDate expiryDate) {
-        if (expiryDate.isAfter(LocalDate.now())) {
+        if (expiryDate != null && expiryDate.isAfter(ExpiryClock.today())) {
             this.expiryDate = expiryDate;
             return true;
         }
@@ -23,6 +23,11 @@ public class ExpirableProduct extends Product implements Expirable {
 
     @Override
     public boolean isExpired() {
-        return this.expiryDate.isBefore(LocalDate.now());
+        return this.expiryDate.toEpochDay() < ExpiryClock.todayEpochDay();
+    }
+
+    @Override
+    public LocalDate getExpiryDate() {
+        return this.expiryDate;
     }
 }
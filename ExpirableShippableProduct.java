@@ -5,7 +5,7 @@ public class ExpirableShippableProduct extends Product implements Expirable, Shi
 
     private LocalDate expiryDate;
     private double weight;
-    private double shippingFees;
+    private long shippingFeesMinor;
 
     public ExpirableShippableProduct(String name, int quantity, double price, LocalDate expiryDate, double weight, double shippingFees) {
         super(name, quantity, price);
@@ -22,7 +22,7 @@ public class ExpirableShippableProduct extends Product implements Expirable, Shi
 
     @Override
     public boolean setExpiryDate(LocalDate expiryDate) {
-        if (expiryDate != null && expiryDate.isAfter(LocalDate.now())) {
+        if (expiryDate != null && expiryDate.isAfter(ExpiryClock.today())) {
             this.expiryDate = expiryDate;
             return true;
         }
@@ -31,7 +31,12 @@ public class ExpirableShippableProduct extends Product implements Expirable, Shi
 
     @Override
     public boolean isExpired() {
-        return this.expiryDate.isBefore(LocalDate.now());
+        return this.expiryDate.toEpochDay() < ExpiryClock.todayEpochDay();
+    }
+
+    @Override
+    public LocalDate getExpiryDate() {
+        return this.expiryDate;
     }
 
     @Override
@@ -45,8 +50,8 @@ public class ExpirableShippableProduct extends Product implements Expirable, Shi
 
     @Override
     public boolean setShippingFees(double shippingFees) {
-        if (shippingFees > 0) {
-            this.shippingFees = shippingFees;
+        if (Money.isPositiveAmount(shippingFees)) {
+            this.shippingFeesMinor = Money.ofMajor(shippingFees);
             return true;
         }
         return false;
@@ -54,7 +59,12 @@ public class ExpirableShippableProduct extends Product implements Expirable, Shi
 
     @Override
     public double getShippingFees() {
-        return this.shippingFees;
+        return Money.toMajor(this.shippingFeesMinor);
+    }
+
+    @Override
+    public long getShippingFeesMinor() {
+        return this.shippingFeesMinor;
     }
 
     @Override
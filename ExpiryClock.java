@@ -0,0 +1,44 @@
+
+import java.time.LocalDate;
+
+/**
+ * Business date used for every expiry check.
+ * <p>
+ * {@link LocalDate#now()} reads the system clock and time zone on each call, so
+ * the current date is cached here and only refreshed by {@link #tick()}, which
+ * the {@link ExpirySweeper} calls on every run.
+ */
+public final class ExpiryClock {
+
+    private static volatile LocalDate today = LocalDate.now();
+    private static volatile long todayEpochDay = today.toEpochDay();
+
+    private ExpiryClock() {
+    }
+
+    public static LocalDate today() {
+        return today;
+    }
+
+    public static long todayEpochDay() {
+        return todayEpochDay;
+    }
+
+    /**
+     * Refreshes the cached date from the system clock
+     */
+    public static void tick() {
+        tick(LocalDate.now());
+    }
+
+    /**
+     * Moves the cached date to the given day, e.g. to replay a past or future day
+     */
+    public static void tick(LocalDate date) {
+        if (date == null) {
+            throw new IllegalArgumentException("Invalid date");
+        }
+        todayEpochDay = date.toEpochDay();
+        today = date;
+    }
+}
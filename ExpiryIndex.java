@@ -0,0 +1,109 @@
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * Expirable products bucketed by expiry day, oldest first.
+ * <p>
+ * Finding what has expired only touches the buckets before today, so a sweep
+ * costs O(expired) no matter how large the catalog is. Each product remembers
+ * the day it is filed under, so removing or re-filing it is O(1) however full
+ * its bucket is. A date pushed back is picked up by the sweep; a date brought
+ * forward must be passed to {@link #refile(Product)}, or the product would only
+ * be swept on its old day.
+ */
+public class ExpiryIndex {
+
+    private final ConcurrentSkipListMap<Long, Set<Product>> buckets = new ConcurrentSkipListMap<>();
+    private final Map<Product, Long> filedDays = new ConcurrentHashMap<>();
+
+    public boolean add(Product product) {
+        if (!(product instanceof Expirable expirable) || expirable.getExpiryDate() == null) {
+            return false;
+        }
+        long expiryDay = expirable.getExpiryDate().toEpochDay();
+        this.filedDays.put(product, expiryDay);
+        while (true) {
+            Set<Product> bucket = this.buckets.computeIfAbsent(expiryDay, day -> ConcurrentHashMap.newKeySet());
+            bucket.add(product);
+            // A sweep may have detached the bucket meanwhile; if so, file the product again
+            if (this.buckets.get(expiryDay) == bucket) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops a product from the bucket it is filed under, even if its date has since changed
+     *
+     * @return false if it was not indexed
+     */
+    public boolean remove(Product product) {
+        Long expiryDay = product == null ? null : this.filedDays.remove(product);
+        if (expiryDay == null) {
+            return false;
+        }
+        Set<Product> bucket = this.buckets.get(expiryDay);
+        if (bucket != null) {
+            bucket.remove(product);
+        }
+        return true;
+    }
+
+    /**
+     * Moves an indexed product to the bucket of its current expiry date
+     *
+     * @return false if it was not indexed
+     */
+    public boolean refile(Product product) {
+        Long expiryDay = product == null ? null : this.filedDays.get(product);
+        if (expiryDay == null) {
+            return false;
+        }
+        if (expiryDay == ((Expirable) product).getExpiryDate().toEpochDay()) {
+            return true;
+        }
+        Set<Product> bucket = this.buckets.get(expiryDay);
+        if (bucket != null) {
+            bucket.remove(product);
+        }
+        return add(product);
+    }
+
+    /**
+     * Removes every product whose expiry day is before {@code todayEpochDay} and hands it to {@code expired}.
+     * Products whose expiry date has since been pushed back are re-indexed instead.
+     *
+     * @return number of expired products that {@code expired} accepted
+     */
+    public int pollExpired(long todayEpochDay, Predicate<Product> expired) {
+        int count = 0;
+        Map.Entry<Long, Set<Product>> bucket;
+        while ((bucket = this.buckets.firstEntry()) != null && bucket.getKey() < todayEpochDay) {
+            if (!this.buckets.remove(bucket.getKey(), bucket.getValue())) {
+                continue;
+            }
+            for (Product product : bucket.getValue()) {
+                // Removed or re-filed elsewhere since it was put in this bucket
+                if (!bucket.getKey().equals(this.filedDays.get(product))) {
+                    continue;
+                }
+                if (((Expirable) product).getExpiryDate().toEpochDay() < todayEpochDay) {
+                    if (this.filedDays.remove(product, bucket.getKey()) && expired.test(product)) {
+                        count++;
+                    }
+                } else {
+                    add(product);
+                }
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return this.buckets.isEmpty();
+    }
+}
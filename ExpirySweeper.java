@@ -0,0 +1,35 @@
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically refreshes the {@link ExpiryClock} and pulls expired products out of a {@link Catalog}.
+ */
+public class ExpirySweeper implements AutoCloseable {
+
+    private final ScheduledExecutorService scheduler;
+
+    public ExpirySweeper(Catalog catalog, long period, TimeUnit unit) {
+        if (catalog == null) {
+            throw new IllegalArgumentException("Invalid catalog");
+        }
+        if (period <= 0 || unit == null) {
+            throw new IllegalArgumentException("Invalid sweep period");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(() -> {
+            ExpiryClock.tick();
+            catalog.removeExpiredProducts();
+        }, 0, period, unit);
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
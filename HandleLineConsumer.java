@@ -0,0 +1,9 @@
+
+/**
+ * Receives a {@link StoreCart}'s lines one at a time, as a product handle and a quantity.
+ */
+@FunctionalInterface
+public interface HandleLineConsumer {
+
+    void accept(int handle, int quantity);
+}
@@ -0,0 +1,316 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One shard of a {@link ShardedInventory}: the stock of the SKUs that hash to it,
+ * served over a local socket.
+ * <p>
+ * Each request is a one-byte operation followed by its arguments, written with
+ * {@link DataOutputStream}; each reply is a single boolean or int. Prepare
+ * reserves every line of a transaction or none, commit sells the prepared units
+ * and abort returns them, so a coordinator can run two-phase commit across
+ * shards. Finished transactions leave a tombstone for a while, so a repeated
+ * commit or abort gets the same answer and a prepare that arrives after its
+ * abort, or reuses an id, is refused. Prepares neither committed nor aborted
+ * nor renewed within the prepare timeout are aborted by the node, so a live
+ * coordinator renews the transactions it has not finished yet. Stock moves
+ * through the same lock-free {@link StockLevel} as in the single-process catalog.
+ */
+public class InventoryNode implements AutoCloseable {
+
+    static final byte PREPARE = 1;
+    static final byte COMMIT = 2;
+    static final byte ABORT = 3;
+    static final byte STOCK = 4;
+    static final byte RESTOCK = 5;
+    static final byte RENEW = 6;
+
+    static final int MAX_LINES = 4096;
+
+    private final Map<String, StockLevel> stock = new ConcurrentHashMap<>();
+    private final Map<String, Transaction> transactions = new ConcurrentHashMap<>();
+    private final long prepareTimeoutNanos;
+    private final AtomicLong expiredPrepares = new AtomicLong();
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService reaper;
+
+    public InventoryNode(int port) throws IOException {
+        this(port, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param prepareTimeout how long a prepared transaction may wait for its
+     *                       commit or abort; tombstones are kept twice as long
+     */
+    public InventoryNode(int port, long prepareTimeout, TimeUnit unit) throws IOException {
+        if (prepareTimeout <= 0 || unit == null) {
+            throw new IllegalArgumentException("Invalid prepare timeout");
+        }
+        this.prepareTimeoutNanos = unit.toNanos(prepareTimeout);
+        this.serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        this.executor = CheckoutServer.newRequestExecutor();
+        this.executor.execute(this::acceptLoop);
+        this.reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-node-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, this.prepareTimeoutNanos / 4);
+        this.reaper.scheduleAtFixedRate(this::reap, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public int getQuantity(String sku) {
+        StockLevel level = this.stock.get(sku);
+        return level == null ? 0 : level.getAvailable();
+    }
+
+    /**
+     * @return number of transactions prepared but not yet committed or aborted
+     */
+    public int getPreparedTransactions() {
+        int count = 0;
+        for (Transaction transaction : this.transactions.values()) {
+            if (transaction.isPrepared()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return prepared transactions the node aborted because their coordinator never finished them
+     */
+    public long getExpiredPrepares() {
+        return this.expiredPrepares.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        this.executor.shutdownNow();
+        this.reaper.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                try {
+                    this.executor.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    // Accepted just as the node closed
+                    socket.close();
+                    return;
+                }
+            } catch (IOException e) {
+                if (this.serverSocket.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                switch (op) {
+                    case PREPARE -> out.writeBoolean(prepare(in));
+                    case COMMIT -> out.writeBoolean(finish(in.readUTF(), true));
+                    case ABORT -> out.writeBoolean(finish(in.readUTF(), false));
+                    case STOCK -> out.writeInt(getQuantity(in.readUTF()));
+                    case RESTOCK -> out.writeBoolean(restock(in.readUTF(), in.readInt()));
+                    case RENEW -> out.writeBoolean(renew(in.readUTF()));
+                    default -> {
+                        return;
+                    }
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // Client went away mid-request
+        } catch (IOException e) {
+            // Malformed request; drop the connection
+        }
+    }
+
+    private boolean prepare(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        int lines = in.readInt();
+        if (lines <= 0 || lines > MAX_LINES) {
+            throw new IOException("Invalid line count: " + lines);
+        }
+        String[] skus = new String[lines];
+        int[] quantities = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            skus[i] = in.readUTF();
+            quantities[i] = in.readInt();
+        }
+        if (this.transactions.containsKey(id)) {
+            return false;
+        }
+
+        for (int i = 0; i < lines; i++) {
+            StockLevel level = this.stock.get(skus[i]);
+            if (level == null || quantities[i] <= 0 || !level.reserve(quantities[i])) {
+                release(skus, quantities, i);
+                return false;
+            }
+        }
+        Transaction transaction = new Transaction(skus, quantities, System.nanoTime() + this.prepareTimeoutNanos);
+        // Loses to a racing prepare of the same id, or to an abort that overtook this prepare
+        if (this.transactions.putIfAbsent(id, transaction) != null) {
+            release(skus, quantities, lines);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(String[] skus, int[] quantities, int lines) {
+        for (int i = 0; i < lines; i++) {
+            this.stock.get(skus[i]).release(quantities[i]);
+        }
+    }
+
+    /**
+     * Commits or aborts a prepared transaction and leaves a tombstone in its place
+     *
+     * @return false if the transaction already ended the other way, or if a
+     * commit finds nothing prepared
+     */
+    private boolean finish(String id, boolean commit) {
+        boolean[] done = new boolean[1];
+        long retainUntil = System.nanoTime() + 2 * this.prepareTimeoutNanos;
+        this.transactions.compute(id, (key, current) -> {
+            if (current == null) {
+                // An abort may overtake its prepare; the tombstone makes that prepare fail
+                done[0] = !commit;
+                return commit ? null : Transaction.finished(false, retainUntil);
+            }
+            if (!current.isPrepared()) {
+                done[0] = current.committed == commit;
+                return current;
+            }
+            for (int i = 0; i < current.skus.length; i++) {
+                StockLevel level = this.stock.get(current.skus[i]);
+                if (commit) {
+                    level.commit(current.quantities[i]);
+                } else {
+                    level.release(current.quantities[i]);
+                }
+            }
+            done[0] = true;
+            return Transaction.finished(commit, retainUntil);
+        });
+        return done[0];
+    }
+
+    /**
+     * Restarts a prepared transaction's timeout
+     *
+     * @return false if the transaction is no longer prepared and did not commit
+     */
+    private boolean renew(String id) {
+        long deadline = System.nanoTime() + this.prepareTimeoutNanos;
+        Transaction renewed = this.transactions.computeIfPresent(id, (key, current) -> current.isPrepared()
+                ? new Transaction(current.skus, current.quantities, deadline) : current);
+        return renewed != null && (renewed.isPrepared() || renewed.committed);
+    }
+
+    /**
+     * Aborts prepares past their timeout and drops tombstones past their retention
+     */
+    private void reap() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Transaction> entry : this.transactions.entrySet()) {
+            Transaction transaction = entry.getValue();
+            if (now - transaction.deadline < 0) {
+                continue;
+            }
+            if (transaction.isPrepared()) {
+                if (finish(entry.getKey(), false)) {
+                    this.expiredPrepares.incrementAndGet();
+                }
+            } else {
+                this.transactions.remove(entry.getKey(), transaction);
+            }
+        }
+    }
+
+    private boolean restock(String sku, int quantity) {
+        return this.stock.computeIfAbsent(sku, key -> new StockLevel(0)).restock(quantity);
+    }
+
+    /**
+     * A prepared transaction's lines until it ends, then a tombstone with its outcome
+     */
+    private static class Transaction {
+
+        private final String[] skus;
+        private final int[] quantities;
+        private final boolean committed;
+        // Prepare timeout while prepared, end of retention once finished
+        private final long deadline;
+
+        private Transaction(String[] skus, int[] quantities, long deadline) {
+            this(skus, quantities, false, deadline);
+        }
+
+        private Transaction(String[] skus, int[] quantities, boolean committed, long deadline) {
+            this.skus = skus;
+            this.quantities = quantities;
+            this.committed = committed;
+            this.deadline = deadline;
+        }
+
+        private static Transaction finished(boolean committed, long retainUntil) {
+            return new Transaction(null, null, committed, retainUntil);
+        }
+
+        private boolean isPrepared() {
+            return this.skus != null;
+        }
+    }
+
+    /**
+     * Runs a node as its own process on {@code args[0]} (default: any free port) and
+     * prints the port it listens on, for {@link ShardHarness} to connect to
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        try (InventoryNode node = new InventoryNode(port)) {
+            System.out.println("Inventory node listening on " + node.getPort());
+            System.out.flush();
+            Thread.currentThread().join();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a {@link CheckoutServer} with many concurrent shopping sessions.
+ * <p>
+ * Run with {@code java LoadGenerator [port] [sessions] [concurrency]}; without a
+ * port argument an in-process server with a demo catalog is started first.
+ * Each session opens, adds two items and checks out.
+ */
+public class LoadGenerator {
+
+    private static final String[] SKUS = {"EBOOK", "LAPTOP", "MILK", "CHEESE"};
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        CheckoutServer localServer = null;
+        int port;
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        } else {
+            localServer = new CheckoutServer(CheckoutServer.demoCatalog(Integer.MAX_VALUE / 2), 0);
+            localServer.start();
+            port = localServer.getPort();
+        }
+
+        try {
+            run("http://127.0.0.1:" + port, sessions, concurrency);
+        } finally {
+            if (localServer != null) {
+                localServer.close();
+            }
+        }
+    }
+
+    private static void run(String baseUrl, int sessions, int concurrency) throws Exception {
+        ExecutorService executor = CheckoutServer.newRequestExecutor();
+        HttpClient client = HttpClient.newBuilder().executor(executor).build();
+        AtomicInteger nextSession = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong totalLatencyNanos = new AtomicLong();
+
+        long start = System.nanoTime();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            workers.add(executor.submit(() -> {
+                int session;
+                while ((session = nextSession.getAndIncrement()) < sessions) {
+                    long sessionStart = System.nanoTime();
+                    try {
+                        String id = post(client, baseUrl + "/session?customer=Load%20Tester%20" + session
+                                + "&balance=100000");
+                        post(client, baseUrl + "/cart/add?session=" + id + "&sku=" + SKUS[session % SKUS.length]
+                                + "&quantity=1");
+                        post(client, baseUrl + "/cart/add?session=" + id + "&sku=" + SKUS[(session + 1) % SKUS.length]
+                                + "&quantity=2");
+                        post(client, baseUrl + "/checkout?session=" + id);
+                        completed.incrementAndGet();
+                        totalLatencyNanos.addAndGet(System.nanoTime() - sessionStart);
+                    } catch (IOException | IllegalStateException e) {
+                        failed.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdownNow();
+
+        System.out.printf("Sessions: %d completed, %d failed, %d concurrent%n", completed.get(), failed.get(), concurrency);
+        System.out.printf("Throughput: %.0f checkouts/second%n", completed.get() * 1_000_000_000.0 / elapsed);
+        if (completed.get() > 0) {
+            System.out.printf("Mean session latency: %.2f ms%n", totalLatencyNanos.get() / 1_000_000.0 / completed.get());
+        }
+    }
+
+    private static String post(HttpClient client, String url) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).POST(HttpRequest.BodyPublishers.noBody()).build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(response.body());
+        }
+        return response.body();
+    }
+}
@@ -1,5 +1,17 @@
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class Main {
 
@@ -26,6 +38,54 @@ public class Main {
         testCase9_ZeroBalanceCustomer();
         // Test Case 10: Exact balance scenario
         testCase10_ExactBalance();
+        // Test Case 11: Concurrent carts reserving the same product
+        testCase11_ConcurrentReservations();
+        // Test Case 12: Batch checkout of many carts in one call
+        testCase12_BatchCheckout();
+        // Test Case 13: Shipping totals follow cart changes
+        testCase13_IncrementalShipping();
+        // Test Case 14: Cent-exact totals against an exact balance
+        testCase14_ExactMoneyTotals();
+        // Test Case 15: Expired stock is swept out of the catalog
+        testCase15_ExpirySweep();
+        // Test Case 16: Checkouts survive a restart through the order log
+        testCase16_OrderLogReplay();
+        // Test Case 17: Restart from a memory-mapped catalog snapshot
+        testCase17_CatalogSnapshot();
+        // Test Case 18: Columnar cart for a very large B2B order
+        testCase18_ColumnarCart();
+        // Test Case 19: Parallel checkouts debiting one shared wallet
+        testCase19_SharedWalletDebits();
+        // Test Case 20: Failed stock commit rolls the debit back
+        testCase20_WalletRollback();
+        // Test Case 21: Heavy order split into parcels
+        testCase21_SplitShipment();
+        // Test Case 22: Promotions priced by the pricing engine
+        testCase22_PricingRules();
+        // Test Case 23: Orders streamed in from CSV and JSONL files
+        testCase23_OrderImport();
+        // Test Case 24: Repeat quotes served from the quote cache
+        testCase24_QuoteCache();
+        // Test Case 25: Abandoned carts give their stock back
+        testCase25_StockHolds();
+        // Test Case 26: Cart committed across inventory shards
+        testCase26_ShardedInventory();
+        // Test Case 27: Cart rebuilt from its change stream
+        testCase27_CartJournal();
+        // Test Case 28: Product search by name, kind and stock
+        testCase28_ProductSearch();
+        // Test Case 29: Checkout against the off-heap product store
+        testCase29_OffHeapStore();
+        // Test Case 30: Receipts written by background workers
+        testCase30_ReceiptDispatch();
+        // The soak run reports its own share of the metrics; taken now, the scenarios' stay readable
+        String scenarioMetrics = CheckoutMetrics.global().report();
+        // Test Case 31: Seeded soak run of every scenario across threads
+        testCase31_SoakRun();
+
+        System.out.println("=== Checkout Metrics (Test Cases 1-30) ===");
+        System.out.println();
+        System.out.print(scenarioMetrics);
     }
 
     private static void testCase1_SuccessfulMixedProductsCheckout() {
@@ -47,9 +107,9 @@ public class Main {
             Customer customer = new Customer("John Doe", 1200.0, cart);
 
             // Create shipping service and checkout
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (Exception e) {
             System.out.println("❌ Error: " + e.getMessage());
@@ -72,9 +132,9 @@ public class Main {
             cart.addItem(course, 1);
 
             Customer customer = new Customer("Alice Smith", 500.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (Exception e) {
             System.out.println("❌ Error: " + e.getMessage());
@@ -96,9 +156,9 @@ public class Main {
             cart.addItem(clothing, 3);
 
             Customer customer = new Customer("Bob Johnson", 400.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (Exception e) {
             System.out.println("❌ Error: " + e.getMessage());
@@ -120,9 +180,9 @@ public class Main {
             cart.addItem(yogurt, 3);
 
             Customer customer = new Customer("Carol Wilson", 100.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (Exception e) {
             System.out.println("❌ Error: " + e.getMessage());
@@ -144,9 +204,9 @@ public class Main {
             cart.addItem(meat, 1);
 
             Customer customer = new Customer("David Brown", 150.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
             System.out.println("✅ Expirable + Shippable products checkout successful!");
             System.out.println("Cheese expiry status: " + (cheese.isExpired() ? "Expired" : "Fresh"));
@@ -171,9 +231,9 @@ public class Main {
 
             // Customer with insufficient balance
             Customer customer = new Customer("Poor Pete", 100.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (IllegalArgumentException e) {
             System.out.println("✅ Expected failure: " + e.getMessage());
@@ -188,9 +248,9 @@ public class Main {
         try {
             Cart emptyCart = new Cart();
             Customer customer = new Customer("Empty Buyer", 1000.0, emptyCart);
-            ShippingService shippingService = new ShippingService(emptyCart.getItems());
+            ShippingService shippingService = new ShippingService(emptyCart);
             CheckoutService checkout = new CheckoutService(emptyCart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (IllegalArgumentException e) {
             System.out.println("✅ Expected failure: " + e.getMessage());
@@ -213,9 +273,9 @@ public class Main {
             cart.addItem(snack, 15);         // 15 energy bars
 
             Customer customer = new Customer("Bulk Buyer", 500.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
 
         } catch (Exception e) {
             System.out.println("❌ Error: " + e.getMessage());
@@ -254,9 +314,1193 @@ public class Main {
             // Total: $45 + $35 = $80
 
             Customer customer = new Customer("Exact Balance", 80.0, cart);
-            ShippingService shippingService = new ShippingService(cart.getItems());
+            ShippingService shippingService = new ShippingService(cart);
             CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
-            checkout.generateReceipt();
+            checkout.checkout();
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase11_ConcurrentReservations() {
+        System.out.println("--- Test Case 11: Concurrent Reservations on a Hot Product ---");
+        System.out.println();
+        try {
+            int stock = 10_000;
+            int threads = 32;
+            ShippableProduct console = new ShippableProduct("Flash Sale Console", stock, 299.99, 3.0, 25.99);
+
+            AtomicInteger reservedUnits = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int units = 1 + t % 3;
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    // Each attempt is a new cart racing for the same stock
+                    while (console.getQuantity() > 0) {
+                        Cart cart = new Cart();
+                        if (cart.addItem(console, units)) {
+                            reservedUnits.addAndGet(units);
+                        } else if (cart.addItem(console, 1)) {
+                            reservedUnits.incrementAndGet();
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            if (reservedUnits.get() != stock || console.getQuantity() != 0 || console.getReservedQuantity() != stock) {
+                throw new IllegalStateException("Oversold: reserved " + reservedUnits.get() + " of " + stock
+                        + " (available " + console.getQuantity() + ", held " + console.getReservedQuantity() + ")");
+            }
+            System.out.println("✅ " + threads + " threads reserved exactly " + reservedUnits.get() + " of " + stock + " units");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase12_BatchCheckout() {
+        System.out.println("--- Test Case 12: Batch Checkout ---");
+        System.out.println();
+        try {
+            int carts = 100_000;
+            Product giftCard = new Product("Gift Card", carts, 10.0);
+            ShippableProduct mug = new ShippableProduct("Coffee Mug", carts, 8.5, 0.4, 2.0);
+
+            List<Order> orders = new ArrayList<>(carts);
+            for (int i = 0; i < carts; i++) {
+                Cart cart = new Cart();
+                cart.addItem(giftCard, 1);
+                cart.addItem(mug, 1);
+                // Every tenth customer cannot afford the mug's shipping
+                double balance = i % 10 == 0 ? 19.0 : 50.0;
+                orders.add(new Order(new Customer("Batch Customer " + i, balance, cart), cart));
+            }
+
+            long balanceRejections = CheckoutMetrics.global().getRejections(CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE);
+            BatchCheckoutResult result = new BatchCheckoutService().checkout(orders);
+
+            int expectedRejected = carts / 10;
+            if (result.getAcceptedOrders() != carts - expectedRejected
+                    || result.getRejectedOrders().size() != expectedRejected
+                    || giftCard.getQuantity() != 0
+                    || giftCard.getReservedQuantity() != expectedRejected
+                    || CheckoutMetrics.global().getRejections(CheckoutMetrics.Rejection.INSUFFICIENT_BALANCE)
+                    - balanceRejections != expectedRejected) {
+                throw new IllegalStateException("Unexpected batch outcome: " + result.getAcceptedOrders() + " accepted, "
+                        + result.getRejectedOrders().size() + " rejected");
+            }
+            // Rejected carts are unsealed with their reservations intact, so emptying them returns the stock
+            for (int index : result.getRejectedOrders().keySet()) {
+                Cart rejectedCart = orders.get(index).getCart();
+                if (rejectedCart.isCheckedOut() || !rejectedCart.removeItem(giftCard, 1)
+                        || !rejectedCart.removeItem(mug, 1)) {
+                    throw new IllegalStateException("Rejected cart " + index + " was left sealed");
+                }
+            }
+            if (giftCard.getQuantity() != expectedRejected || giftCard.getReservedQuantity() != 0) {
+                throw new IllegalStateException("Emptied rejected carts did not return their stock");
+            }
+            System.out.println("✅ " + result.getAcceptedOrders() + " accepted, " + result.getRejectedOrders().size()
+                    + " rejected, " + Math.round(result.getCartsPerSecond()) + " carts/second");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase13_IncrementalShipping() {
+        System.out.println("--- Test Case 13: Incremental Shipping Totals ---");
+        System.out.println();
+        try {
+            ShippableProduct lamp = new ShippableProduct("Desk Lamp", 10, 35.0, 1.5, 6.0);
+            ShippableProduct rug = new ShippableProduct("Rug", 4, 120.0, 4.0, 15.0);
+            Product warranty = new Product("Extended Warranty", 100, 20.0);
+
+            Cart cart = new Cart();
+            ShippingService shippingService = new ShippingService(cart);
+            cart.addItem(lamp, 2);
+            cart.addItem(rug, 1);
+            cart.addItem(warranty, 1);
+            cart.removeItem(lamp, 1);
+            cart.removeItem(rug, 1);
+
+            // Only one lamp is left to ship
+            if (shippingService.getTotalWeight() != 1.5 || shippingService.getTotalShippingFees() != 6.0
+                    || shippingService.getShippableItems().size() != 1 || rug.getQuantity() != 4) {
+                throw new IllegalStateException("Shipping totals out of sync with cart");
+            }
+            System.out.println("✅ Shipping quote follows the cart: " + shippingService.getTotalWeight() + "kg, "
+                    + shippingService.getTotalShippingFees() + " fees");
+
+            Customer customer = new Customer("Changing Mind", 100.0, cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
+            checkout.checkout();
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase14_ExactMoneyTotals() {
+        System.out.println("--- Test Case 14: Cent-Exact Money Totals ---");
+        System.out.println();
+        try {
+            // 0.1 + 0.2 is 0.30000000000000004 in double arithmetic
+            Product sticker = new Product("Sticker", 10, 0.1);
+            Product badge = new Product("Badge", 10, 0.2);
+
+            Cart cart = new Cart();
+            cart.addItem(sticker, 1);
+            cart.addItem(badge, 1);
+
+            Customer customer = new Customer("Penny Counter", 0.3, cart);
+            ShippingService shippingService = new ShippingService(cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
+            checkout.checkout();
+            System.out.println("✅ Total of " + cart.getTotalPriceMinor() + " cents matches the balance exactly");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase15_ExpirySweep() {
+        System.out.println("--- Test Case 15: Expiry Sweep ---");
+        System.out.println();
+        try {
+            Catalog catalog = new Catalog();
+            ExpirableProduct salad = new ExpirableProduct("Salad", 20, 3.5, LocalDate.now().plusDays(2));
+            ExpirableShippableProduct salmon = new ExpirableShippableProduct(
+                    "Smoked Salmon", 10, 18.0, LocalDate.now().plusDays(5), 0.3, 4.0);
+            ExpirableProduct honey = new ExpirableProduct("Honey", 30, 9.0, LocalDate.now().plusYears(2));
+            catalog.addProduct("FOOD-SALAD", salad);
+            catalog.addProduct("FOOD-SALMON", salmon);
+            catalog.addProduct("FOOD-HONEY", honey);
+            ExpirableProduct yoghurt = new ExpirableProduct("Yoghurt", 12, 1.2, LocalDate.now().plusDays(30));
+            catalog.addProduct("FOOD-YOGHURT", yoghurt);
+            // A recall brings the yoghurt's date forward into the coming week
+            catalog.setExpiryDate("FOOD-YOGHURT", LocalDate.now().plusDays(3));
+
+            // A week passes
+            ExpiryClock.tick(LocalDate.now().plusDays(7));
+            int removed = catalog.removeExpiredProducts();
+            boolean saladRejected = !new Cart().addItem(salad, 1);
+            ExpiryClock.tick();
+
+            if (removed != 3 || catalog.size() != 1 || !catalog.containsProduct("FOOD-HONEY") || !saladRejected) {
+                throw new IllegalStateException("Expired products were not taken off sale");
+            }
+            System.out.println("✅ Swept " + removed + " expired products, " + catalog.size() + " left on sale");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase16_OrderLogReplay() {
+        System.out.println("--- Test Case 16: Order Log Replay ---");
+        System.out.println();
+        Path logFile = null;
+        try {
+            logFile = Files.createTempFile("orders", ".log");
+            int orders = 200;
+
+            Catalog catalog = CheckoutServer.demoCatalog(1_000);
+            try (OrderLog orderLog = new OrderLog(logFile)) {
+                List<Thread> cashiers = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    Thread cashier = new Thread(() -> {
+                        for (int i = 0; i < orders / 4; i++) {
+                            Cart cart = new Cart();
+                            cart.addItem(catalog.getProduct("EBOOK"), 1);
+                            cart.addItem(catalog.getProduct("CHEESE"), 2);
+                            Customer customer = new Customer("Log Customer", 1_000.0, cart);
+                            new CheckoutService(cart, customer, new ShippingService(cart), orderLog)
+                                    .checkout(new StringBuilder());
+                        }
+                    });
+                    cashiers.add(cashier);
+                    cashier.start();
+                }
+                for (Thread cashier : cashiers) {
+                    cashier.join();
+                }
+            }
+
+            // Simulate a restart: fresh stock, then replay the log
+            Catalog restarted = CheckoutServer.demoCatalog(1_000);
+            OrderLog.ReplayResult replay = OrderLog.replay(logFile, restarted);
+            long spent = replay.getSpentByCustomer().get("Log Customer");
+            if (replay.getOrders() != orders || restarted.getQuantity("CHEESE") != catalog.getQuantity("CHEESE")
+                    || restarted.getQuantity("EBOOK") != catalog.getQuantity("EBOOK") || replay.getUnappliedLines() != 0
+                    || spent != Money.ofMajor((25.0 + 2 * 15.99 + 2 * 8.99) * orders)) {
+                throw new IllegalStateException("Replayed state does not match the live state");
+            }
+            System.out.println("✅ Replayed " + replay.getOrders() + " orders, " + Money.toMajor(spent) + " spent");
+
+            // Restarted with less stock than was sold: the lines that no longer fit are reported, not dropped silently
+            OrderLog.ReplayResult shortReplay = OrderLog.replay(logFile, CheckoutServer.demoCatalog(100));
+            if (shortReplay.getUnappliedLines() != 250) {
+                throw new IllegalStateException(shortReplay.getUnappliedLines() + " lines reported short instead of 250");
+            }
+            System.out.println("✅ " + shortReplay.getUnappliedLines() + " lines short of stock reported on replay");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        } finally {
+            if (logFile != null) {
+                logFile.toFile().delete();
+            }
+        }
+        System.out.println();
+    }
+
+    private static void testCase17_CatalogSnapshot() {
+        System.out.println("--- Test Case 17: Catalog Snapshot Restart ---");
+        System.out.println();
+        Path snapshotFile = null;
+        Path resnapshotFile = null;
+        try {
+            snapshotFile = Files.createTempFile("catalog", ".snapshot");
+            int skus = 200_000;
+
+            Catalog catalog = new Catalog(skus);
+            for (int i = 0; i < skus; i++) {
+                String sku = "SKU-" + i;
+                switch (i % 4) {
+                    case 0 -> catalog.addProduct(sku, new Product("Item " + i, 50, 9.99));
+                    case 1 -> catalog.addProduct(sku, new ShippableProduct("Item " + i, 50, 19.99, 0.5, 4.99));
+                    case 2 -> catalog.addProduct(sku, new ExpirableProduct("Item " + i, 50, 2.49,
+                            LocalDate.now().plusDays(30)));
+                    default -> catalog.addProduct(sku, new ExpirableShippableProduct("Item " + i, 50, 12.99,
+                            LocalDate.now().plusDays(30), 1.2, 6.99));
+                }
+            }
+            catalog.getProduct("SKU-7").reduceQuantity(50);
+            catalog.getProduct("SKU-123457").setCategory("hardware");
+            CatalogSnapshot.write(catalog, snapshotFile);
+
+            // Restart: map the snapshot and serve the first checkout straight away
+            long start = System.nanoTime();
+            Catalog restarted = new Catalog();
+            restarted.attachSnapshot(CatalogSnapshot.open(snapshotFile));
+            Cart cart = new Cart();
+            cart.addItem(restarted.getProduct("SKU-123457"), 2);
+            Customer customer = new Customer("First After Restart", 100.0, cart);
+            new CheckoutService(cart, customer, new ShippingService(cart)).checkout(new StringBuilder());
+            long firstCheckoutMillis = (System.nanoTime() - start) / 1_000_000;
+
+            Product soldOut = restarted.getProduct("SKU-7");
+            if (restarted.getQuantity("SKU-123457") != 48 || soldOut == null || soldOut.getQuantity() != 0
+                    || !"hardware".equals(restarted.getProduct("SKU-123457").getCategory())
+                    || soldOut.getCategory() != null
+                    || !(soldOut instanceof ExpirableShippableProduct) || restarted.size() != 2) {
+                throw new IllegalStateException("Snapshot did not restore the catalog");
+            }
+            System.out.println("✅ First checkout " + firstCheckoutMillis + " ms after mapping a "
+                    + skus + " SKU snapshot");
+
+            // Re-snapshotting keeps the SKUs never loaded and drops the removed ones
+            restarted.removeProduct("SKU-1");
+            resnapshotFile = Files.createTempFile("catalog", ".snapshot");
+            CatalogSnapshot.write(restarted, resnapshotFile);
+            CatalogSnapshot rewritten = CatalogSnapshot.open(resnapshotFile);
+            if (rewritten.size() != skus - 1 || rewritten.indexOf("SKU-1") >= 0
+                    || rewritten.record(rewritten.indexOf("SKU-123457")).getQuantity() != 48
+                    || !"hardware".equals(rewritten.record(rewritten.indexOf("SKU-123457")).getCategory())) {
+                throw new IllegalStateException("Snapshot of a snapshot-backed catalog lost SKUs");
+            }
+            System.out.println("✅ Re-snapshot kept " + rewritten.size() + " SKUs, loaded or not");
+
+            // Loading a SKU while another thread delists it must never bring it back
+            Catalog racing = new Catalog();
+            racing.attachSnapshot(rewritten);
+            int raced = 20_000;
+            Thread loader = new Thread(() -> {
+                for (int i = 0; i < raced; i++) {
+                    racing.getProduct("SKU-" + (100_000 + i));
+                }
+            });
+            loader.start();
+            for (int i = 0; i < raced; i++) {
+                racing.removeProduct("SKU-" + (100_000 + i));
+            }
+            loader.join();
+            for (int i = 0; i < raced; i++) {
+                if (racing.getProduct("SKU-" + (100_000 + i)) != null) {
+                    throw new IllegalStateException("SKU-" + (100_000 + i) + " came back after being removed");
+                }
+            }
+            System.out.println("✅ " + raced + " SKUs stayed delisted while being loaded concurrently");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        } finally {
+            if (snapshotFile != null) {
+                snapshotFile.toFile().delete();
+            }
+            if (resnapshotFile != null) {
+                resnapshotFile.toFile().delete();
+            }
+        }
+        System.out.println();
+    }
+
+    private static void testCase18_ColumnarCart() {
+        System.out.println("--- Test Case 18: Columnar Cart for Large Orders ---");
+        System.out.println();
+        try {
+            int lines = 10_000;
+            Cart mapCart = new Cart();
+            ColumnarCart columnarCart = new ColumnarCart(lines);
+            Product emptied = null;
+            for (int i = 0; i < lines; i++) {
+                Product part = i % 2 == 0
+                        ? new Product("Part " + i, 100, 1.25)
+                        : new ShippableProduct("Part " + i, 100, 3.5, 0.05, 0.4);
+                mapCart.addItem(part, 1 + i % 3);
+                columnarCart.addItem(part, 1 + i % 3);
+                if (i % 7 == 0) {
+                    mapCart.removeItem(part, 1 + i % 3);
+                    columnarCart.removeItem(part, 1 + i % 3);
+                    emptied = part;
+                }
+            }
+            // A re-added item moves to the end of both carts
+            mapCart.addItem(emptied, 2);
+            columnarCart.addItem(emptied, 2);
+
+            Customer customer = new Customer("B2B Buyer", 1_000_000.0, columnarCart);
+            StringBuilder mapReceipt = new StringBuilder();
+            StringBuilder columnarReceipt = new StringBuilder();
+            new CheckoutService(mapCart, customer, new ShippingService(mapCart)).generateReceipt(mapReceipt);
+            new CheckoutService(columnarCart, customer, new ShippingService(columnarCart)).generateReceipt(columnarReceipt);
+
+            if (!mapReceipt.toString().equals(columnarReceipt.toString())
+                    || !new ArrayList<>(mapCart.getItems().entrySet()).equals(new ArrayList<>(columnarCart.getItems().entrySet()))
+                    || columnarCart.getTotalPriceMinor() != mapCart.getTotalPriceMinor()) {
+                throw new IllegalStateException("Columnar cart differs from the map-backed cart");
+            }
+            System.out.println("✅ " + columnarCart.getLineCount() + " lines, receipt identical to the map-backed cart");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase19_SharedWalletDebits() {
+        System.out.println("--- Test Case 19: Shared Corporate Wallet ---");
+        System.out.println();
+        try {
+            Wallet corporateAccount = new Wallet(Money.ofMajor(1_000.0));
+            Product license = new Product("Seat License", 100_000, 7.0);
+            AtomicInteger successful = new AtomicInteger();
+            AtomicInteger declined = new AtomicInteger();
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> buyers = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                Customer buyer = new Customer("Employee " + t, corporateAccount);
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < 50; i++) {
+                        Cart cart = new Cart();
+                        cart.addItem(license, 1);
+                        try {
+                            new CheckoutService(cart, buyer, new ShippingService(cart)).checkout(new StringBuilder());
+                            successful.incrementAndGet();
+                        } catch (IllegalArgumentException e) {
+                            declined.incrementAndGet();
+                            cart.removeItem(license, 1);
+                        }
+                    }
+                });
+                buyers.add(thread);
+                thread.start();
+            }
+            start.countDown();
+            for (Thread buyer : buyers) {
+                buyer.join();
+            }
+
+            // 1000 / 7 = 142 licenses fit in the budget, with 6 left over
+            if (successful.get() != 142 || corporateAccount.getBalanceMinor() != Money.ofMajor(6.0)
+                    || license.getQuantity() != 100_000 - 142 || license.getReservedQuantity() != 0) {
+                throw new IllegalStateException("Wallet over- or under-debited: " + successful.get() + " checkouts, "
+                        + Money.toMajor(corporateAccount.getBalanceMinor()) + " left");
+            }
+            System.out.println("✅ " + successful.get() + " parallel checkouts debited, " + declined.get()
+                    + " declined, balance never negative");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase20_WalletRollback() {
+        System.out.println("--- Test Case 20: Wallet Rollback on Failed Stock Commit ---");
+        System.out.println();
+        try {
+            Product monitor = new Product("Monitor", 5, 150.0);
+            Product cable = new Product("Cable", 5, 10.0);
+
+            Cart cart = new Cart();
+            cart.addItem(monitor, 1);
+            cart.addItem(cable, 2);
+            Customer customer = new Customer("Unlucky Buyer", 500.0, cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, new ShippingService(cart));
+
+            // The cable reservation disappears before checkout, as if it had been reclaimed
+            cable.releaseReservation(2);
+            try {
+                checkout.checkout(new StringBuilder());
+                throw new IllegalStateException("Checkout should have failed");
+            } catch (IllegalStateException e) {
+                if (!"Reserved stock is no longer available".equals(e.getMessage())) {
+                    throw e;
+                }
+            }
+
+            if (customer.getBalanceMinor() != Money.ofMajor(500.0) || monitor.getReservedQuantity() != 1
+                    || monitor.getQuantity() != 4) {
+                throw new IllegalStateException("Failed checkout was not rolled back");
+            }
+            System.out.println("✅ Debit and monitor commit rolled back, balance still " + customer.getBalance());
+
+            // A completed cart cannot be checked out a second time
+            Product keyboard = new Product("Keyboard", 5, 40.0);
+            Cart paid = new Cart();
+            paid.addItem(keyboard, 1);
+            Customer buyer = new Customer("Careful Buyer", 100.0, paid);
+            new CheckoutService(paid, buyer, new ShippingService(paid)).checkout(new StringBuilder());
+            try {
+                new CheckoutService(paid, buyer, new ShippingService(paid)).checkout(new StringBuilder());
+                throw new IllegalStateException("Second checkout should have been refused");
+            } catch (IllegalArgumentException e) {
+                System.out.println("✅ Expected failure: " + e.getMessage());
+            }
+            if (buyer.getBalanceMinor() != Money.ofMajor(60.0) || keyboard.getQuantity() != 4 || paid.addItem(keyboard, 1)) {
+                throw new IllegalStateException("Checked-out cart was charged or changed again");
+            }
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase21_SplitShipment() {
+        System.out.println("--- Test Case 21: Split Shipment ---");
+        System.out.println();
+        try {
+            ShippableProduct weights = new ShippableProduct("Dumbbell", 20, 40.0, 6.0, 5.0);
+            ShippableProduct mat = new ShippableProduct("Yoga Mat", 20, 25.0, 1.5, 3.0);
+            ShippableProduct bands = new ShippableProduct("Resistance Band", 50, 8.0, 0.25, 1.0);
+
+            Cart cart = new Cart();
+            cart.addItem(weights, 3);
+            cart.addItem(mat, 2);
+            cart.addItem(bands, 6);
+
+            Customer customer = new Customer("Home Gym", 500.0, cart);
+            ShippingService shippingService = new ShippingService(cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
+            checkout.setShipmentPlanner(new ShipmentPlanner(10.0));
+            checkout.checkout();
+
+            // A B2B order big enough to be packed with fork/join
+            ColumnarCart bulkCart = new ColumnarCart(5_000);
+            for (int i = 0; i < 5_000; i++) {
+                bulkCart.addItem(new ShippableProduct("Crate " + i, 10, 5.0, 0.2 + (i % 37) * 0.25, 1.0), 1 + i % 4);
+            }
+            ShippingService bulkShipping = new ShippingService(bulkCart);
+            List<ShipmentPlanner.Parcel> parcels = new ShipmentPlanner(30.0).plan(bulkShipping);
+            double packedWeight = 0.0;
+            for (ShipmentPlanner.Parcel parcel : parcels) {
+                if (parcel.getWeight() > 30.0 + 1e-6) {
+                    throw new IllegalStateException("Parcel over the weight limit: " + parcel.getWeight());
+                }
+                packedWeight += parcel.getWeight();
+            }
+            if (Math.abs(packedWeight - bulkShipping.getTotalWeight()) > 1e-6) {
+                throw new IllegalStateException("Parcels do not add up to the order weight");
+            }
+            System.out.println("✅ " + Math.round(packedWeight) + "kg bulk order packed into " + parcels.size()
+                    + " parcels of at most 30kg (lower bound " + (int) Math.ceil(packedWeight / 30.0) + ")");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase22_PricingRules() {
+        System.out.println("--- Test Case 22: Pricing Rules ---");
+        System.out.println();
+        try {
+            Catalog catalog = new Catalog();
+            ShippableProduct laptop = new ShippableProduct("Laptop", 5, 999.99, 2.5, 50.0);
+            ExpirableProduct milk = new ExpirableProduct("Milk", 50, 5.99, LocalDate.now().plusDays(7));
+            Product yogurt = new Product("Yogurt", 50, 2.50);
+            catalog.addProduct("LAPTOP", laptop);
+            catalog.addProduct("MILK", milk);
+            catalog.addProduct("YOGURT", yogurt);
+            milk.setCategory("dairy");
+            yogurt.setCategory("dairy");
+
+            PricingRules promotions = new PricingRules();
+            promotions.addSkuPercentOff("LAPTOP", 10);
+            promotions.addCategoryPercentOff("dairy", 20);
+            promotions.addBuyGetFree("MILK", 2, 1);
+            promotions.addThreshold(500.0, 25.0, 0);
+            PricingEngine pricing = new PricingEngine(promotions);
+
+            Cart cart = new Cart();
+            cart.setPricingEngine(pricing);
+            cart.addItem(laptop, 1);
+            cart.addItem(milk, 3);
+            cart.addItem(yogurt, 4);
+
+            // 10% off the laptop, third milk free and 20% off the rest of the dairy, then 25 off over 500
+            long expected = 10000 + (599 + 240) + 200 + 2500;
+            if (cart.getDiscountMinor() != expected) {
+                throw new IllegalStateException("Expected a discount of " + expected + " cents, got "
+                        + cart.getDiscountMinor());
+            }
+
+            Customer customer = new Customer("Promo Hunter", 950.0, cart);
+            ShippingService shippingService = new ShippingService(cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, shippingService);
+            checkout.checkout();
+
+            long charged = 95000 - customer.getBalanceMinor();
+            long due = cart.getTotalPriceMinor() - expected + shippingService.getTotalShippingFeesMinor();
+            if (charged != due) {
+                throw new IllegalStateException("Charged " + charged + " cents instead of " + due);
+            }
+            System.out.println("✅ Charged " + charged + " cents after " + expected + " cents of promotions");
+
+            // Ending the promotions is a single publish; carts pick the new rules up immediately
+            pricing.publish(new PricingRules());
+            Cart laterCart = new Cart();
+            laterCart.setPricingEngine(pricing);
+            laterCart.addItem(milk, 3);
+            if (laterCart.getDiscountMinor() != 0) {
+                throw new IllegalStateException("Retired promotions still applied");
+            }
+            System.out.println("✅ Promotions retired without touching open carts");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase23_OrderImport() {
+        System.out.println("--- Test Case 23: Streaming Order Import ---");
+        System.out.println();
+        Path csvFile = null;
+        Path jsonlFile = null;
+        try {
+            Catalog catalog = CheckoutServer.demoCatalog(1_000_000);
+            OrderImporter importer = new OrderImporter(catalog);
+
+            csvFile = Files.createTempFile("orders", ".csv");
+            Files.writeString(csvFile, "order_id,customer,balance,sku,quantity\n"
+                    + "1,\"Doe, Jane\",2000,LAPTOP,1\n"
+                    + "1,\"Doe, Jane\",2000,MILK,2\n"
+                    + "2,Broke,10,LAPTOP,1\n"
+                    + "3,Lost,100,UNKNOWN,1\n"
+                    + "not,a,row\n"
+                    + "4,Reader,100,EBOOK,3\n"
+                    + "4,Reader,100,EBOOK,lots\n"
+                    + "5,Reader,100,EBOOK,3\n");
+            StringBuilder results = new StringBuilder();
+            StringBuilder receipts = new StringBuilder();
+            OrderImporter.ImportResult csv = importer.importOrders(csvFile, results, receipts);
+            if (csv.getAcceptedOrders() != 2 || csv.getRejectedOrders() != 4 || csv.getMalformedRows() != 2
+                    || !results.toString().contains("1,ACCEPTED,106197,")
+                    || !results.toString().contains("4,REJECTED,,Malformed row 7")
+                    || !results.toString().contains("2,REJECTED,,Insufficient customer balance")) {
+                throw new IllegalStateException("Unexpected CSV import results:\n" + results);
+            }
+            if (catalog.getProduct("LAPTOP").getReservedQuantity() != 0) {
+                throw new IllegalStateException("Rejected orders kept their stock reserved");
+            }
+            System.out.println("✅ CSV import: " + csv.getAcceptedOrders() + " accepted, " + csv.getRejectedOrders()
+                    + " rejected, " + csv.getMalformedRows() + " malformed rows reported");
+
+            // A larger JSONL replay streams through the same path one order at a time
+            jsonlFile = Files.createTempFile("orders", ".jsonl");
+            int orders = 20_000;
+            try (BufferedWriter writer = Files.newBufferedWriter(jsonlFile)) {
+                for (int i = 0; i < orders; i++) {
+                    writer.write("{\"order_id\":\"" + i + "\",\"customer\":\"Shopper " + i
+                            + "\",\"balance\":500,\"sku\":\"CHEESE\",\"quantity\":2}\n");
+                    writer.write("{\"order_id\":\"" + i + "\",\"customer\":\"Shopper " + i
+                            + "\",\"balance\":500,\"sku\":\"EBOOK\",\"quantity\":1}\n");
+                }
+            }
+            OrderImporter.ImportResult jsonl = importer.importOrders(jsonlFile, new StringBuilder(), Writer.nullWriter());
+            if (jsonl.getAcceptedOrders() != orders || jsonl.getRows() != 2L * orders) {
+                throw new IllegalStateException("Only " + jsonl.getAcceptedOrders() + " of " + orders
+                        + " JSONL orders were accepted");
+            }
+            System.out.println("✅ JSONL import: " + jsonl.getAcceptedOrders() + " orders from " + jsonl.getRows()
+                    + " rows at " + Math.round(jsonl.getRowsPerSecond()) + " rows/second");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        } finally {
+            if (csvFile != null) {
+                csvFile.toFile().delete();
+            }
+            if (jsonlFile != null) {
+                jsonlFile.toFile().delete();
+            }
+        }
+        System.out.println();
+    }
+
+    private static void testCase24_QuoteCache() {
+        System.out.println("--- Test Case 24: Quote Cache ---");
+        System.out.println();
+        try {
+            Catalog catalog = CheckoutServer.demoCatalog(1_000);
+            PricingEngine pricing = new PricingEngine();
+            QuoteCache quotes = new QuoteCache(2);
+
+            Cart cart = new Cart();
+            cart.setPricingEngine(pricing);
+            cart.addItem(catalog.getProduct("LAPTOP"), 1);
+            cart.addItem(catalog.getProduct("CHEESE"), 2);
+
+            CartQuote first = quotes.quote(cart);
+            int repeats = 10_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < repeats; i++) {
+                if (quotes.quote(cart) != first) {
+                    throw new IllegalStateException("Repeat quote was recomputed");
+                }
+            }
+            double repeatMicros = (System.nanoTime() - start) / 1_000.0 / repeats;
+
+            StringBuilder receipt = new StringBuilder();
+            new CheckoutService(cart, new Customer("Quoter", 5000.0, cart), new ShippingService(cart))
+                    .generateReceipt(receipt);
+            if (!first.getReceipt().equals(receipt.toString())) {
+                throw new IllegalStateException("Cached receipt differs from the checkout receipt");
+            }
+            System.out.printf("✅ %d repeat quotes at %.2f µs each, %d hit(s), %d miss(es)%n",
+                    repeats, repeatMicros, quotes.getHits(), quotes.getMisses());
+
+            // New promotions and re-priced products both bypass the cached quote
+            PricingRules sale = new PricingRules();
+            sale.addSkuPercentOff("LAPTOP", 10);
+            pricing.publish(sale);
+            CartQuote onSale = quotes.quote(cart);
+            Product oldCheese = catalog.getProduct("CHEESE");
+            catalog.removeProduct("CHEESE");
+            ExpirableShippableProduct repricedCheese = new ExpirableShippableProduct(
+                    "Aged Cheese", 1_000, 12.99, LocalDate.now().plusDays(30), 0.5, 8.99);
+            catalog.addProduct("CHEESE", repricedCheese);
+            cart.removeItem(oldCheese, 2);
+            cart.addItem(repricedCheese, 2);
+            CartQuote repriced = quotes.quote(cart);
+            if (onSale.getDiscountMinor() != 10000 || repriced.getSubtotalMinor() != 99999 + 2 * 1299
+                    || quotes.size() > quotes.getMaxEntries()) {
+                throw new IllegalStateException("Stale quote served after a price change");
+            }
+            System.out.println("✅ Quotes refreshed after a promotion (" + onSale.getTotal() + ") and a re-price ("
+                    + repriced.getTotal() + ")");
+
+            // A shipping fee changed in place is part of the key too
+            repricedCheese.setShippingFees(20.0);
+            CartQuote refeed = quotes.quote(cart);
+            if (refeed.getShippingFeesMinor() == repriced.getShippingFeesMinor()) {
+                throw new IllegalStateException("Stale quote served after a shipping fee change");
+            }
+            System.out.println("✅ Quote refreshed after a shipping fee change (" + refeed.getTotal() + ")");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase25_StockHolds() {
+        System.out.println("--- Test Case 25: Timed Stock Holds ---");
+        System.out.println();
+        try (StockHolds holds = new StockHolds(200, 10, TimeUnit.MILLISECONDS)) {
+            Product console = new Product("Game Console", 10, 499.0);
+
+            // One shopper checks out in time while another abandons their cart
+            Cart buyerCart = new Cart();
+            buyerCart.setStockHolds(holds);
+            buyerCart.addItem(console, 1);
+            Cart abandonedCart = new Cart();
+            abandonedCart.setStockHolds(holds);
+            abandonedCart.addItem(console, 3);
+            Customer buyer = new Customer("On Time", 600.0, buyerCart);
+            new CheckoutService(buyerCart, buyer, new ShippingService(buyerCart)).checkout(new StringBuilder());
+
+            Customer late = new Customer("Too Late", 2000.0, abandonedCart);
+            CheckoutService lateCheckout = new CheckoutService(abandonedCart, late, new ShippingService(abandonedCart));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (console.getReservedQuantity() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            if (console.getQuantity() != 9 || console.getReservedQuantity() != 0) {
+                throw new IllegalStateException("Abandoned hold was not returned to stock");
+            }
+            try {
+                lateCheckout.checkout(new StringBuilder());
+                throw new IllegalStateException("Checkout succeeded on an expired hold");
+            } catch (IllegalStateException e) {
+                if (!e.getMessage().equals("Stock hold expired") || late.getBalanceMinor() != 200000) {
+                    throw e;
+                }
+            }
+            System.out.println("✅ Abandoned hold of 3 returned to stock, late checkout refunded");
+
+            // The abandoned cart drops the dead line and can shop again
+            int dropped = abandonedCart.dropExpiredHolds();
+            if (dropped != 1 || !abandonedCart.isEmpty() || !abandonedCart.addItem(console, 2)) {
+                throw new IllegalStateException("Expired line was not dropped from the cart");
+            }
+            System.out.println("✅ Expired line dropped, " + holds.getExpiredHolds() + " hold(s) reaped so far");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase26_ShardedInventory() {
+        System.out.println("--- Test Case 26: Sharded Inventory ---");
+        System.out.println();
+        try (InventoryNode first = new InventoryNode(0);
+             InventoryNode second = new InventoryNode(0);
+             ShardedInventory inventory = new ShardedInventory(List.of(
+                     new InetSocketAddress("127.0.0.1", first.getPort()),
+                     new InetSocketAddress("127.0.0.1", second.getPort())))) {
+            Catalog catalog = CheckoutServer.demoCatalog(1_000);
+            for (String sku : new String[]{"EBOOK", "LAPTOP", "MILK", "CHEESE"}) {
+                inventory.restock(sku, 5);
+            }
+
+            Cart cart = new Cart();
+            cart.addItem(catalog.getProduct("EBOOK"), 2);
+            cart.addItem(catalog.getProduct("LAPTOP"), 1);
+            cart.addItem(catalog.getProduct("MILK"), 3);
+            cart.addItem(catalog.getProduct("CHEESE"), 4);
+            Customer customer = new Customer("Sharded Shopper", 2000.0, cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, new ShippingService(cart));
+            checkout.setInventory(inventory);
+            checkout.checkout(new StringBuilder());
+            if (inventory.getQuantity("LAPTOP") != 4 || inventory.getQuantity("CHEESE") != 1) {
+                throw new IllegalStateException("Shards did not commit the cart");
+            }
+            Product laptop = catalog.getProduct("LAPTOP");
+            if (laptop.getQuantity() != 1_000 || laptop.getReservedQuantity() != 0) {
+                throw new IllegalStateException("Local stock was sold alongside the shards");
+            }
+            System.out.println("✅ Cart spanning " + inventory.getShards() + " shards committed on every shard");
+
+            // More cheese than its shard holds: every shard aborts and the wallet is refunded
+            Cart tooMuch = new Cart();
+            tooMuch.addItem(catalog.getProduct("EBOOK"), 1);
+            tooMuch.addItem(catalog.getProduct("CHEESE"), 2);
+            Customer refused = new Customer("Refused Shopper", 500.0, tooMuch);
+            CheckoutService refusedCheckout = new CheckoutService(tooMuch, refused, new ShippingService(tooMuch));
+            refusedCheckout.setInventory(inventory);
+            try {
+                refusedCheckout.checkout(new StringBuilder());
+                throw new IllegalStateException("Checkout oversold a shard");
+            } catch (IllegalStateException e) {
+                if (!e.getMessage().equals("Insufficient stock on inventory shard")) {
+                    throw e;
+                }
+            }
+            if (inventory.getQuantity("EBOOK") != 3 || refused.getBalanceMinor() != 50000
+                    || first.getPreparedTransactions() + second.getPreparedTransactions() != 0) {
+                throw new IllegalStateException("Failed checkout left stock reserved on a shard");
+            }
+            System.out.println("✅ Oversold cart aborted on every shard, balance refunded");
+
+            // A decision that takes longer than the prepare timeout still commits, since the client renews
+            try (InventoryNode slowNode = new InventoryNode(0, 200, TimeUnit.MILLISECONDS);
+                 ShardedInventory renewing = new ShardedInventory(List.of(
+                         new InetSocketAddress("127.0.0.1", slowNode.getPort())), 40, TimeUnit.MILLISECONDS)) {
+                renewing.restock("MILK", 5);
+                Cart slowCart = new Cart();
+                slowCart.addItem(catalog.getProduct("MILK"), 2);
+                ShardedInventory.Transaction slow = renewing.prepare(slowCart);
+                Thread.sleep(700);
+                slow.commit();
+                if (slowNode.getExpiredPrepares() != 0 || renewing.getLostCommits() != 0
+                        || renewing.getQuantity("MILK") != 3) {
+                    throw new IllegalStateException("Shard expired a prepare the client was still renewing");
+                }
+            }
+            System.out.println("✅ Prepare renewed past the shard's timeout and committed");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase27_CartJournal() {
+        System.out.println("--- Test Case 27: Cart Change Stream ---");
+        System.out.println();
+        try {
+            Catalog catalog = CheckoutServer.demoCatalog(100_000);
+            Cart cart = new Cart();
+            CartJournal journal = new CartJournal(cart, 256);
+
+            // A long browsing session: items go in and out of the cart many times
+            String[] skus = {"EBOOK", "LAPTOP", "MILK", "CHEESE"};
+            // A replica is sent the tail after every change, and the whole stream after a compaction
+            ByteArrayOutputStream replica = new ByteArrayOutputStream();
+            long replicaGeneration = journal.getGeneration();
+            int changes = 0;
+            int shippedBytes = 0;
+            for (int i = 0; i < 10_000; i++) {
+                Product product = catalog.getProduct(skus[i % skus.length]);
+                if (i % 3 == 2) {
+                    cart.updateItem(product, 0);
+                } else {
+                    cart.addItem(product, 1 + i % 5);
+                }
+                changes++;
+                int before = replica.size();
+                if (!journal.writeTo(replica, replicaGeneration, replica.size())) {
+                    replica.reset();
+                    replicaGeneration = journal.getGeneration();
+                    before = 0;
+                    journal.writeTo(replica, replicaGeneration, 0);
+                }
+                shippedBytes += replica.size() - before;
+            }
+            if (journal.getGeneration() > 0 && journal.writeTo(new ByteArrayOutputStream(), 0, 0)) {
+                throw new IllegalStateException("Journal shipped a tail from a compacted generation");
+            }
+
+            // After a crash, the session is rebuilt from the replica's copy in a fresh catalog
+            Catalog restarted = CheckoutServer.demoCatalog(100_000);
+            Cart rebuilt = new Cart();
+            int skipped = CartJournal.replay(replica.toByteArray(), restarted, rebuilt);
+            for (String sku : skus) {
+                if (rebuilt.getItemQuantity(restarted.getProduct(sku)) != cart.getItemQuantity(catalog.getProduct(sku))) {
+                    throw new IllegalStateException("Rebuilt cart differs for " + sku);
+                }
+            }
+            if (skipped != 0 || rebuilt.getTotalPriceMinor() != cart.getTotalPriceMinor()) {
+                throw new IllegalStateException("Rebuilt cart totals differ");
+            }
+            System.out.printf("✅ %d changes replicated in %d bytes (%.1f bytes/change), %d compactions%n",
+                    changes, shippedBytes, (double) shippedBytes / changes, journal.getGeneration());
+            System.out.println("✅ Cart rebuilt from a " + journal.size() + "-byte stream after a restart");
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase28_ProductSearch() {
+        System.out.println("--- Test Case 28: Product Search ---");
+        System.out.println();
+        try {
+            int size = 200_000;
+            String[] adjectives = {"Aged", "Fresh", "Organic", "Smoked", "Classic", "Spicy", "Golden", "Wild"};
+            String[] nouns = {"Cheese", "Cheddar", "Cherry Jam", "Coffee", "Chocolate", "Honey", "Olive Oil", "Tea"};
+            Catalog catalog = new Catalog(size);
+            catalog.attachSearchIndex(new ProductSearchIndex());
+            LocalDate expiry = LocalDate.now().plusDays(30);
+            for (int i = 0; i < size; i++) {
+                String name = adjectives[i / 4 % adjectives.length] + " " + nouns[i / 32 % nouns.length] + " " + i;
+                Product product = switch (i % 4) {
+                    case 0 -> new Product(name, 1 + i % 20, 9.99);
+                    case 1 -> new ShippableProduct(name, 1 + i % 20, 12.99, 0.5, 4.99);
+                    case 2 -> new ExpirableProduct(name, 1 + i % 20, 6.49, expiry);
+                    default -> new ExpirableShippableProduct(name, 1 + i % 20, 15.99, expiry, 1.0, 5.99);
+                };
+                catalog.addProduct("SEARCH-" + i, product);
+            }
+            ProductSearchIndex index = catalog.getSearchIndex();
+            int shippableInStock = ProductSearchIndex.SHIPPABLE | ProductSearchIndex.IN_STOCK;
+
+            // Typing "aged che" matches aged cheese, cheddar and cherry jam that can be shipped
+            List<Product> found = index.search("aged che", shippableInStock, 50);
+            for (Product product : found) {
+                if (!product.getName().startsWith("Aged Che") || !(product instanceof Shippable)) {
+                    throw new IllegalStateException("Unexpected search result: " + product.getName());
+                }
+            }
+            if (found.size() != 50) {
+                throw new IllegalStateException("Expected 50 results, got " + found.size());
+            }
+            System.out.println("✅ \"aged che\" found " + found.size() + " shippable products, e.g. "
+                    + found.get(0).getName());
+
+            // Selling out takes a product out of in-stock results, and returned stock brings it back
+            Product truffle = new ExpirableShippableProduct("Black Truffle Oil", 2, 49.99, expiry, 0.3, 6.99);
+            catalog.addProduct("TRUFFLE", truffle);
+            Product caviar = new ExpirableProduct("Caviar Tin", 1, 89.99, expiry);
+            catalog.addProduct("CAVIAR", caviar);
+            if (index.search("truffle", shippableInStock, 10).size() != 1) {
+                throw new IllegalStateException("Truffle oil should be searchable");
+            }
+            truffle.reserveQuantity(2);
+            caviar.reduceQuantity(1);
+            if (!index.search("truffle", shippableInStock, 10).isEmpty()
+                    || !index.search("caviar", ProductSearchIndex.IN_STOCK, 10).isEmpty()) {
+                throw new IllegalStateException("Sold out products should not be in stock");
+            }
+            if (index.search("caviar", 0, 10).size() != 1) {
+                throw new IllegalStateException("Sold out products should still be searchable");
+            }
+            // A second index over the same product keeps tracking it after the first lets go
+            ProductSearchIndex gourmet = new ProductSearchIndex();
+            gourmet.add(truffle);
+            gourmet.add(caviar);
+            gourmet.remove(caviar);
+            truffle.releaseReservation(1);
+            if (index.search("black truffle", shippableInStock, 10).size() != 1
+                    || gourmet.search("truffle", shippableInStock, 10).size() != 1) {
+                throw new IllegalStateException("Released stock should be back in results");
+            }
+            gourmet.remove(truffle);
+            catalog.removeProduct("TRUFFLE");
+            if (!index.search("truffle", 0, 10).isEmpty()) {
+                throw new IllegalStateException("Removed products should not be found");
+            }
+            System.out.println("✅ Sold out, restocked and delisted products tracked without reindexing");
+
+            String[] queries = {"aged che", "fresh", "organic olive", "wild honey 12", "ch", "smoked tea", "golden c"};
+            int rounds = 20_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                index.search(queries[i % queries.length], shippableInStock, 20);
+            }
+            double micros = (System.nanoTime() - start) / 1_000.0 / rounds;
+            System.out.printf("✅ %d queries over %d products and %d tokens, %.1f µs per query%n",
+                    rounds, index.size(), index.getTokenCount(), micros);
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static void testCase29_OffHeapStore() {
+        System.out.println("--- Test Case 29: Off-Heap Product Store ---");
+        System.out.println();
+        try {
+            int size = 1_000_000;
+            LocalDate expiry = LocalDate.now().plusDays(30);
+            String[] names = {"Cheese", "TV", "Milk", "Scratch Card", "Laptop", "Yogurt", "Speaker", "Ebook"};
+            ProductStore store = new ProductStore();
+            long heapBefore = usedHeap();
+            for (int i = 0; i < size; i++) {
+                String name = names[i % names.length] + " " + i % 1_000;
+                switch (i % 4) {
+                    case 0 -> store.addProduct(name, 100, 9.99);
+                    case 1 -> store.addShippable(name, 100, 12.99, 0.5, 4.99);
+                    case 2 -> store.addExpirable(name, 100, 6.49, expiry);
+                    default -> store.addExpirableShippable(name, 100, 15.99, expiry, 0.2, 2.49);
+                }
+            }
+            long heapGrowth = Math.max(0, usedHeap() - heapBefore);
+            System.out.printf("✅ %d products in %.1f MB off-heap, %d interned names, heap grew %.1f MB%n",
+                    store.size(), store.getOffHeapBytes() / 1e6, store.getNameCount(), heapGrowth / 1e6);
+
+            // The same order as heap products and as store handles must print the same receipt
+            int cheese = store.addExpirableShippable("Cheese", 10, 100.0, expiry, 0.2, 15.0);
+            int tv = store.addShippable("TV", 5, 500.0, 15.0, 50.0);
+            int card = store.addProduct("Scratch Card", 100, 25.0);
+            StoreCart storeCart = new StoreCart(store);
+            // Built before the items are added, the shipping totals still follow the cart
+            ShippingService storeShipping = new ShippingService(storeCart);
+            storeCart.addItem(cheese, 2);
+            storeCart.addItem(tv, 1);
+            storeCart.addItem(card, 3);
+            storeCart.removeItem(card, 1);
+            // Emptied and re-added, the cheese moves to the end as in a heap cart
+            storeCart.removeItem(cheese, 2);
+            storeCart.addItem(cheese, 2);
+            if (store.getQuantity(card) != 98 || store.getReservedQuantity(card) != 2) {
+                throw new IllegalStateException("Store stock not reserved");
+            }
+            Customer storeCustomer = new Customer("Store Shopper", new Wallet(Money.ofMajor(2_000.0)));
+            CheckoutService storeCheckout = new CheckoutService(storeCart, storeCustomer, storeShipping);
+            StringBuilder storeReceipt = new StringBuilder();
+            storeCheckout.checkout(storeReceipt);
+
+            Cart cart = new Cart();
+            cart.addItem(new ShippableProduct("TV", 5, 500.0, 15.0, 50.0), 1);
+            cart.addItem(new Product("Scratch Card", 100, 25.0), 2);
+            cart.addItem(new ExpirableShippableProduct("Cheese", 10, 100.0, expiry, 0.2, 15.0), 2);
+            Customer customer = new Customer("Heap Shopper", new Wallet(Money.ofMajor(2_000.0)));
+            StringBuilder heapReceipt = new StringBuilder();
+            new CheckoutService(cart, customer, new ShippingService(cart)).checkout(heapReceipt);
+
+            if (!storeReceipt.toString().equals(heapReceipt.toString())) {
+                throw new IllegalStateException("Store receipt differs from heap receipt");
+            }
+            if (store.getQuantity(card) != 98 || store.getReservedQuantity(card) != 0
+                    || storeCustomer.getBalanceMinor() != customer.getBalanceMinor()) {
+                throw new IllegalStateException("Store checkout did not commit like the heap checkout");
+            }
+            System.out.println("✅ Handle cart checked out with the same receipt and balance as heap products");
+
+            // A checked-out handle cart is sealed like a heap cart
+            long balanceAfter = storeCustomer.getBalanceMinor();
+            try {
+                new CheckoutService(storeCart, storeCustomer, new ShippingService(storeCart)).checkout(new StringBuilder());
+                throw new IllegalStateException("Second store checkout should have been refused");
+            } catch (IllegalArgumentException e) {
+                System.out.println("✅ Expected failure: " + e.getMessage());
+            }
+            if (storeCustomer.getBalanceMinor() != balanceAfter || storeCart.removeItem(card, 1)
+                    || storeCart.addItem(card, 1) || store.getQuantity(card) != 98) {
+                throw new IllegalStateException("Checked-out store cart was charged or changed again");
+            }
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void testCase30_ReceiptDispatch() {
+        System.out.println("--- Test Case 30: Asynchronous Receipt Dispatch ---");
+        System.out.println();
+        try {
+            int orders = 200;
+            Catalog catalog = CheckoutServer.demoCatalog(orders * 10);
+
+            // A sink that takes 2 ms per write, like a slow terminal or a congested disk
+            StringBuilder written = new StringBuilder();
+            Appendable slowSink = new Appendable() {
+                @Override
+                public Appendable append(CharSequence text) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+                    written.append(text);
+                    return this;
+                }
+
+                @Override
+                public Appendable append(CharSequence text, int start, int end) {
+                    return append(text.subSequence(start, end));
+                }
+
+                @Override
+                public Appendable append(char c) {
+                    return append(String.valueOf(c));
+                }
+            };
+
+            long syncNanos = runCheckouts(catalog, orders, slowSink, null);
+            long asyncNanos;
+            ReceiptDispatcher dispatcher = new ReceiptDispatcher(64, 2, 32);
+            try (dispatcher) {
+                asyncNanos = runCheckouts(catalog, orders, slowSink, dispatcher);
+            }
+
+            int receipts = written.toString().split("\\*\\* Checkout receipt \\*\\*", -1).length - 1;
+            if (receipts != 2 * orders || dispatcher.getWritten() != orders || dispatcher.getFailures() != 0) {
+                throw new IllegalStateException("Expected " + 2 * orders + " receipts, found " + receipts);
+            }
+            System.out.printf("✅ Checkout with a slow sink: %.0f µs inline, %.0f µs with background dispatch%n",
+                    syncNanos / 1_000.0 / orders, asyncNanos / 1_000.0 / orders);
+            System.out.printf("✅ %d receipts in %d batches, %d producer stalls (%.1f ms) on a %d-slot queue%n",
+                    dispatcher.getWritten(), dispatcher.getBatches(), dispatcher.getProducerStalls(),
+                    dispatcher.getProducerStallNanos() / 1e6, dispatcher.getCapacity());
+
+        } catch (Exception e) {
+            System.out.println("❌ Error: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    /**
+     * @return nanoseconds spent in checkout calls
+     */
+    private static long runCheckouts(Catalog catalog, int orders, Appendable sink, ReceiptDispatcher dispatcher) {
+        long spent = 0;
+        for (int i = 0; i < orders; i++) {
+            Cart cart = new Cart();
+            cart.addItem(catalog.getProduct("CHEESE"), 1);
+            cart.addItem(catalog.getProduct("EBOOK"), 1);
+            Customer customer = new Customer("Reader " + i, 1_000.0, cart);
+            CheckoutService checkout = new CheckoutService(cart, customer, new ShippingService(cart));
+            if (dispatcher != null) {
+                checkout.setReceiptDispatcher(dispatcher);
+            }
+            long start = System.nanoTime();
+            checkout.checkout(sink);
+            spent += System.nanoTime() - start;
+        }
+        return spent;
+    }
+
+    private static void testCase31_SoakRun() {
+        System.out.println("--- Test Case 31: Seeded Soak Run ---");
+        System.out.println();
+        try {
+            // A small catalog, stocked so most orders complete while the hottest SKUs still sell out
+            SoakHarness.Result result = new SoakHarness(42, 4, 1, TimeUnit.SECONDS, 2_000, 5_000).run();
+            if (result.getViolations() != 0) {
+                throw new IllegalStateException(result.getViolations() + " invariant violations, e.g. "
+                        + result.getViolationSamples().get(0));
+            }
+            if (result.getCompleted() <= result.getStockOuts() || result.getStockOuts() == 0) {
+                throw new IllegalStateException("Soak run should mostly complete orders and still sell out SKUs");
+            }
+            if (result.getMetricsCompleted() != result.getCompleted()) {
+                throw new IllegalStateException("Checkout metrics counted " + result.getMetricsCompleted() + " of "
+                        + result.getCompleted() + " soak checkouts");
+            }
+            System.out.printf("✅ %d orders on 4 threads, %d completed, %d sold out, %.0f checkouts/s, p99 %.1f µs%n",
+                    result.getAttempts(), result.getCompleted(), result.getStockOuts(),
+                    result.getCheckoutsPerSecond(), result.getLatency().getPercentileNanos(99) / 1000.0);
+            System.out.println("✅ No oversold stock, leftover reservations or negative balances");
 
         } catch (Exception e) {
             System.out.println("❌ Error: " + e.getMessage());
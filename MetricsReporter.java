@@ -0,0 +1,33 @@
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints a {@link CheckoutMetrics} report.
+ */
+public class MetricsReporter implements AutoCloseable {
+
+    private final ScheduledExecutorService scheduler;
+
+    public MetricsReporter(CheckoutMetrics metrics, PrintStream out, long period, TimeUnit unit) {
+        if (metrics == null || out == null) {
+            throw new IllegalArgumentException("Invalid metrics output");
+        }
+        if (period <= 0 || unit == null) {
+            throw new IllegalArgumentException("Invalid report period");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(() -> out.print(metrics.report()), period, period, unit);
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,73 @@
+
+/**
+ * Exact money arithmetic on primitive {@code long} minor units (cents).
+ * <p>
+ * Amounts are converted from {@code double} once, at the edge of the system,
+ * and every sum or product afterwards is exact and overflow-checked, so totals
+ * never drift and nothing on the hot path is boxed.
+ */
+public final class Money {
+
+    public static final long MINOR_UNITS_PER_MAJOR = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Converts a major-unit amount such as {@code 12.99} to minor units, rounding half-up
+     *
+     * @throws ArithmeticException if the amount is not finite or does not fit in a long
+     */
+    public static long ofMajor(double amount) {
+        double minor = amount * MINOR_UNITS_PER_MAJOR;
+        if (Double.isNaN(minor) || Math.abs(minor) >= Long.MAX_VALUE) {
+            throw new ArithmeticException("Amount out of range: " + amount);
+        }
+        return Math.round(minor);
+    }
+
+    /**
+     * @return true if the amount is finite and worth at least one minor unit
+     */
+    public static boolean isPositiveAmount(double amount) {
+        return amount > 0 && amount < (double) Long.MAX_VALUE / MINOR_UNITS_PER_MAJOR
+                && Math.round(amount * MINOR_UNITS_PER_MAJOR) > 0;
+    }
+
+    public static double toMajor(long minor) {
+        return (double) minor / MINOR_UNITS_PER_MAJOR;
+    }
+
+    public static long add(long augend, long addend) {
+        return Math.addExact(augend, addend);
+    }
+
+    public static long subtract(long minuend, long subtrahend) {
+        return Math.subtractExact(minuend, subtrahend);
+    }
+
+    public static long multiply(long amount, int quantity) {
+        return Math.multiplyExact(amount, quantity);
+    }
+
+    /**
+     * @return the given percentage of a non-negative amount, rounded half-up to a minor unit
+     */
+    public static long percentOf(long amount, int percent) {
+        if (amount < 0 || percent < 0 || percent > 100) {
+            throw new ArithmeticException("Invalid percentage: " + percent + "% of " + amount);
+        }
+        return amount / 100 * percent + (amount % 100 * percent + 50) / 100;
+    }
+
+    /**
+     * Rounds minor units half-up to whole major units, as {@code %.0f} would print the amount
+     */
+    public static long roundToMajor(long minor) {
+        long half = MINOR_UNITS_PER_MAJOR / 2;
+        if (minor >= 0) {
+            return (minor + half) / MINOR_UNITS_PER_MAJOR;
+        }
+        return -((half - minor) / MINOR_UNITS_PER_MAJOR);
+    }
+}
@@ -0,0 +1,39 @@
+
+public class Order {
+
+    private Customer customer;
+    private Cart cart;
+
+    public Order(Customer customer, Cart cart) {
+        if (!setCustomer(customer)) {
+            throw new IllegalArgumentException("Invalid customer");
+        }
+        if (!setCart(cart)) {
+            throw new IllegalArgumentException("Invalid cart");
+        }
+    }
+
+    private boolean setCustomer(Customer customer) {
+        if (customer != null) {
+            this.customer = customer;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean setCart(Cart cart) {
+        if (cart != null) {
+            this.cart = cart;
+            return true;
+        }
+        return false;
+    }
+
+    public Customer getCustomer() {
+        return this.customer;
+    }
+
+    public Cart getCart() {
+        return this.cart;
+    }
+}
@@ -0,0 +1,450 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a file of order lines through {@link ShippingService} and {@link CheckoutService}.
+ * <p>
+ * Every row is one line item; consecutive rows sharing an order id form one order.
+ * A malformed row is reported on its own and, when its order id can be read,
+ * also rejects that order.
+ * CSV rows are {@code order_id,customer,balance,sku,quantity} (an optional header
+ * row is skipped, fields may be double-quoted); JSONL rows are flat objects with
+ * the same keys, e.g. {@code {"order_id":"7","customer":"Ann","balance":120.5,"sku":"MILK","quantity":2}}.
+ * <p>
+ * The file is read through a fixed direct buffer and each order's cart is built
+ * as its rows arrive, checked out and dropped as soon as the next order starts,
+ * so memory stays constant however large the file is. One result row per order
+ * is written to the results sink as it completes, and receipts to the receipt sink.
+ */
+public class OrderImporter {
+
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+    private static final String[] FIELDS = {"order_id", "customer", "balance", "sku", "quantity"};
+
+    private final Catalog catalog;
+    private PricingEngine pricingEngine;
+
+    public OrderImporter(Catalog catalog) {
+        if (catalog == null) {
+            throw new IllegalArgumentException("Invalid catalog");
+        }
+        this.catalog = catalog;
+    }
+
+    /**
+     * Prices every imported cart through the given engine
+     */
+    public boolean setPricingEngine(PricingEngine pricingEngine) {
+        if (pricingEngine != null) {
+            this.pricingEngine = pricingEngine;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Imports a {@code .jsonl} file as JSONL and anything else as CSV
+     *
+     * @param results  receives {@code order_id,status,amount_minor,reason} per order
+     * @param receipts receives every accepted order's receipt
+     */
+    public ImportResult importOrders(Path orders, Appendable results, Appendable receipts) throws IOException {
+        if (orders == null || results == null || receipts == null) {
+            throw new IllegalArgumentException("Invalid import files");
+        }
+        boolean jsonl = orders.getFileName().toString().endsWith(".jsonl");
+        Run run = new Run(results, receipts);
+        results.append("order_id,status,amount_minor,reason\n");
+        try (FileChannel channel = FileChannel.open(orders, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+            byte[] line = new byte[256];
+            int length = 0;
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        run.row(decode(line, length), jsonl);
+                        length = 0;
+                        continue;
+                    }
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[length++] = b;
+                }
+                buffer.clear();
+            }
+            if (length > 0) {
+                run.row(decode(line, length), jsonl);
+            }
+            run.finishOrder();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new ImportResult(run.rows, run.malformedRows, run.accepted, run.rejected, System.nanoTime() - run.start);
+    }
+
+    private static String decode(byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * State of one import: the order being assembled and the running counts
+     */
+    private class Run {
+
+        private final Appendable results;
+        private final Appendable receipts;
+        private final long start = System.nanoTime();
+        private final String[] fields = new String[FIELDS.length];
+        private long rows;
+        private long malformedRows;
+        private long accepted;
+        private long rejected;
+
+        private String orderId;
+        private String customerName;
+        private String balance;
+        private Cart cart;
+        private String failure;
+
+        private Run(Appendable results, Appendable receipts) {
+            this.results = results;
+            this.receipts = receipts;
+        }
+
+        private void row(String line, boolean jsonl) {
+            if (line.isBlank()) {
+                return;
+            }
+            boolean parsed = jsonl ? parseJson(line, this.fields) : parseCsv(line, this.fields);
+            if (!jsonl && this.rows == 0 && this.malformedRows == 0 && FIELDS[0].equals(this.fields[0])) {
+                return;
+            }
+            int quantity;
+            try {
+                quantity = parsed && this.fields[4] != null ? Integer.parseInt(this.fields[4].trim()) : -1;
+            } catch (NumberFormatException e) {
+                quantity = -1;
+            }
+            if (!parsed || this.fields[0] == null || this.fields[3] == null || quantity <= 0) {
+                this.malformedRows++;
+                String reason = "Malformed row " + (this.rows + this.malformedRows);
+                // Checking out the rest of its order would silently drop this line
+                if (this.fields[0] != null && !this.fields[0].isBlank()) {
+                    startOrderIfNew();
+                    if (this.failure == null) {
+                        this.failure = reason;
+                    }
+                }
+                write(null, "MALFORMED", "", reason);
+                return;
+            }
+            this.rows++;
+
+            startOrderIfNew();
+            if (this.failure != null) {
+                return;
+            }
+            Product product = catalog.getProduct(this.fields[3]);
+            if (product == null) {
+                this.failure = "Unknown SKU " + this.fields[3];
+            } else if (!this.cart.addItem(product, quantity)) {
+                this.failure = "Item unavailable: " + this.fields[3];
+            }
+        }
+
+        private void startOrderIfNew() {
+            if (this.fields[0].equals(this.orderId)) {
+                return;
+            }
+            finishOrder();
+            this.orderId = this.fields[0];
+            this.customerName = this.fields[1];
+            this.balance = this.fields[2];
+            this.cart = new Cart();
+            if (pricingEngine != null) {
+                this.cart.setPricingEngine(pricingEngine);
+            }
+            this.failure = null;
+        }
+
+        private void finishOrder() {
+            if (this.orderId == null) {
+                return;
+            }
+            String reason = this.failure;
+            long charged = 0;
+            if (reason == null) {
+                try {
+                    Customer customer = new Customer(this.customerName, parseBalance(this.balance), this.cart);
+                    ShippingService shippingService = new ShippingService(this.cart);
+                    CheckoutService checkout = new CheckoutService(this.cart, customer, shippingService);
+                    long before = customer.getBalanceMinor();
+                    checkout.checkout(this.receipts);
+                    charged = before - customer.getBalanceMinor();
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    reason = e.getMessage();
+                }
+            }
+            if (reason == null) {
+                this.accepted++;
+                write(this.orderId, "ACCEPTED", Long.toString(charged), "");
+            } else {
+                release(this.cart);
+                this.rejected++;
+                write(this.orderId, "REJECTED", "", reason);
+            }
+            this.orderId = null;
+            this.cart = null;
+        }
+
+        private void write(String order, String status, String amount, String reason) {
+            try {
+                this.results.append(order == null ? "" : quote(order)).append(',').append(status).append(',')
+                        .append(amount).append(',').append(quote(reason)).append('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static double parseBalance(String balance) {
+        try {
+            return balance == null ? Double.NaN : Double.parseDouble(balance.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the reservations of a cart that will not be checked out
+     */
+    private static void release(Cart cart) {
+        List<Map.Entry<Product, Integer>> lines = new ArrayList<>(cart.getItems().entrySet());
+        for (Map.Entry<Product, Integer> line : lines) {
+            cart.removeItem(line.getKey(), line.getValue());
+        }
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Splits a CSV row into the known columns; quoted fields may hold commas and doubled quotes
+     */
+    static boolean parseCsv(String line, String[] fields) {
+        Arrays.fill(fields, null);
+        StringBuilder field = new StringBuilder();
+        int column = 0;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                if (column < fields.length) {
+                    fields[column] = field.toString();
+                }
+                column++;
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (column < fields.length) {
+            fields[column] = field.toString();
+        }
+        return !quoted && column == fields.length - 1;
+    }
+
+    /**
+     * Reads the known keys of a flat JSON object; nested values are not supported
+     */
+    static boolean parseJson(String line, String[] fields) {
+        Arrays.fill(fields, null);
+        int[] position = {skipSpaces(line, 0)};
+        if (position[0] >= line.length() || line.charAt(position[0]++) != '{') {
+            return false;
+        }
+        while (true) {
+            position[0] = skipSpaces(line, position[0]);
+            if (position[0] < line.length() && line.charAt(position[0]) == '}') {
+                return skipSpaces(line, position[0] + 1) == line.length();
+            }
+            String key = readJsonString(line, position);
+            position[0] = skipSpaces(line, position[0]);
+            if (key == null || position[0] >= line.length() || line.charAt(position[0]++) != ':') {
+                return false;
+            }
+            position[0] = skipSpaces(line, position[0]);
+            String value;
+            if (position[0] < line.length() && line.charAt(position[0]) == '"') {
+                value = readJsonString(line, position);
+            } else {
+                int end = position[0];
+                while (end < line.length() && ",} \t".indexOf(line.charAt(end)) < 0) {
+                    end++;
+                }
+                value = line.substring(position[0], end);
+                position[0] = end;
+                if (value.isEmpty() || value.equals("null")) {
+                    value = null;
+                }
+            }
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (FIELDS[i].equals(key)) {
+                    fields[i] = value;
+                }
+            }
+            position[0] = skipSpaces(line, position[0]);
+            if (position[0] < line.length() && line.charAt(position[0]) == ',') {
+                position[0]++;
+            } else if (position[0] >= line.length() || line.charAt(position[0]) != '}') {
+                return false;
+            }
+        }
+    }
+
+    private static String readJsonString(String line, int[] position) {
+        int i = position[0];
+        if (i >= line.length() || line.charAt(i) != '"') {
+            return null;
+        }
+        StringBuilder value = new StringBuilder();
+        for (i++; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                position[0] = i + 1;
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (++i >= line.length()) {
+                return null;
+            }
+            char escaped = line.charAt(i);
+            switch (escaped) {
+                case 'n' -> value.append('\n');
+                case 't' -> value.append('\t');
+                case 'r' -> value.append('\r');
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'u' -> {
+                    if (i + 4 >= line.length()) {
+                        return null;
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    i += 4;
+                }
+                default -> value.append(escaped);
+            }
+        }
+        return null;
+    }
+
+    private static int skipSpaces(String line, int position) {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    public static class ImportResult {
+
+        private final long rows;
+        private final long malformedRows;
+        private final long acceptedOrders;
+        private final long rejectedOrders;
+        private final long elapsedNanos;
+
+        private ImportResult(long rows, long malformedRows, long acceptedOrders, long rejectedOrders,
+                             long elapsedNanos) {
+            this.rows = rows;
+            this.malformedRows = malformedRows;
+            this.acceptedOrders = acceptedOrders;
+            this.rejectedOrders = rejectedOrders;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() {
+            return this.rows;
+        }
+
+        public long getMalformedRows() {
+            return this.malformedRows;
+        }
+
+        public long getAcceptedOrders() {
+            return this.acceptedOrders;
+        }
+
+        public long getRejectedOrders() {
+            return this.rejectedOrders;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return this.elapsedNanos == 0 ? 0.0 : (this.rows + this.malformedRows) * 1_000_000_000.0 / this.elapsedNanos;
+        }
+    }
+
+    /**
+     * Run with {@code java OrderImporter <orders.csv|orders.jsonl> <results.csv> [receipts.txt]}
+     * against the demo catalog; receipts are discarded unless a receipt file is given
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java OrderImporter <orders.csv|orders.jsonl> <results.csv> [receipts.txt]");
+            return;
+        }
+        OrderImporter importer = new OrderImporter(CheckoutServer.demoCatalog(Integer.MAX_VALUE / 2));
+        ImportResult result;
+        try (BufferedWriter results = Files.newBufferedWriter(Path.of(args[1]));
+             Writer receipts = args.length > 2 ? Files.newBufferedWriter(Path.of(args[2])) : Writer.nullWriter()) {
+            result = importer.importOrders(Path.of(args[0]), results, receipts);
+        }
+        System.out.printf("Rows: %d (%d malformed)%n", result.getRows() + result.getMalformedRows(),
+                result.getMalformedRows());
+        System.out.printf("Orders: %d accepted, %d rejected%n", result.getAcceptedOrders(), result.getRejectedOrders());
+        System.out.printf("Throughput: %.0f rows/second%n", result.getRowsPerSecond());
+    }
+}
@@ -0,0 +1,336 @@
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of completed checkouts.
+ * <p>
+ * Each record is {@code [int length][int crc32][payload]} where the payload holds
+ * the customer, totals and every line's SKU, quantity and price in minor units.
+ * Appends from any number of threads are queued and a single writer thread
+ * flushes whatever has accumulated with one gathering write and one
+ * {@code fsync}, so durability costs one disk flush per batch, not per order.
+ * A batch that fails to write is cut back off the file; if even that fails the
+ * log stops accepting records. Replaying the log re-applies every order's stock
+ * movements and totals what each customer spent; it does not restore balances.
+ */
+public class OrderLog implements AutoCloseable {
+
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int MAX_BATCH = 1024;
+    private static final PendingRecord CLOSE = new PendingRecord(null);
+
+    private final FileChannel channel;
+    private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Guards closed, so no record is queued behind CLOSE or after the writer has stopped
+    private final Object appendLock = new Object();
+    private boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Opens (or creates) the log for appending, cutting off any torn record left by a crash
+     */
+    public OrderLog(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Invalid log path");
+        }
+        long validLength = Files.exists(path) ? replay(path, null).getValidLength() : 0;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.truncate(validLength);
+        this.channel.position(validLength);
+        this.writer = new Thread(this::writeLoop, "order-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a completed checkout for the next group commit
+     *
+     * @return a future that completes once the record is on disk
+     */
+    public CompletableFuture<Void> append(Customer customer, Cart cart, ShippingService shippingService) {
+        return append(customer, cart, shippingService, 0);
+    }
+
+    /**
+     * Same as {@link #append(Customer, Cart, ShippingService)} for a checkout charged a discount
+     *
+     * @param discountMinor discount taken off the subtotal, in minor units
+     */
+    public CompletableFuture<Void> append(Customer customer, Cart cart, ShippingService shippingService,
+                                          long discountMinor) {
+        PendingRecord record = new PendingRecord(encode(customer, cart, shippingService, discountMinor));
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                throw new IllegalStateException("Order log is closed");
+            }
+            if (this.failure != null) {
+                throw new IllegalStateException("Order log has failed", this.failure);
+            }
+            this.pending.add(record);
+        }
+        return record.written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.pending.add(CLOSE);
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.channel.close();
+    }
+
+    private static ByteBuffer encode(Customer customer, Cart cart, ShippingService shippingService,
+                                     long discountMinor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + cart.getLineCount() * 24);
+        try (DataOutputStream payload = new DataOutputStream(bytes)) {
+            payload.writeUTF(customer.getName());
+            payload.writeLong(cart.getTotalPriceMinor());
+            payload.writeLong(discountMinor);
+            payload.writeLong(shippingService.getTotalShippingFeesMinor());
+            payload.writeInt(cart.getLineCount());
+            cart.forEachItem((product, quantity) -> {
+                if (product.getSku() == null) {
+                    throw new IllegalArgumentException("Product is not in the catalog: " + product.getName());
+                }
+                try {
+                    payload.writeUTF(product.getSku());
+                    payload.writeInt(quantity);
+                    payload.writeLong(product.getPriceMinor());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+        return record;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(this.pending.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.pending.drainTo(batch, MAX_BATCH - 1);
+            if (batch.remove(CLOSE)) {
+                // Flush whatever was queued before close, then stop
+                this.pending.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+            batch.clear();
+        }
+        synchronized (this.appendLock) {
+            this.closed = true;
+        }
+        // Nothing can be queued any more; fail whatever the writer will never reach
+        List<PendingRecord> abandoned = new ArrayList<>();
+        this.pending.drainTo(abandoned);
+        IOException stopped = new IOException("Order log writer stopped");
+        for (PendingRecord record : abandoned) {
+            if (record != CLOSE) {
+                record.written.completeExceptionally(stopped);
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingRecord> batch) {
+        if (this.failure != null) {
+            for (PendingRecord record : batch) {
+                record.written.completeExceptionally(this.failure);
+            }
+            return;
+        }
+        long start = -1;
+        try {
+            start = this.channel.position();
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = batch.get(i).record;
+            }
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= this.channel.write(buffers);
+            }
+            this.channel.force(false);
+            for (PendingRecord record : batch) {
+                record.written.complete(null);
+            }
+        } catch (IOException e) {
+            for (PendingRecord record : batch) {
+                record.written.completeExceptionally(e);
+            }
+            discardFrom(start, e);
+        }
+    }
+
+    /**
+     * Cuts a failed batch's bytes off the file, so later records are not
+     * appended behind a torn one and lost on the next open
+     */
+    private void discardFrom(long start, IOException cause) {
+        try {
+            if (start < 0) {
+                throw cause;
+            }
+            this.channel.truncate(start);
+            this.channel.position(start);
+        } catch (IOException e) {
+            this.failure = e;
+        }
+    }
+
+    /**
+     * Re-applies every logged order: stock leaves the catalog and each customer's spending is totalled.
+     * Reading stops at the first torn or corrupt record. Lines whose SKU is missing from the catalog
+     * or short of stock are skipped and counted, not applied.
+     *
+     * @param catalog catalog whose stock is reduced, or null to only validate the log
+     */
+    public static ReplayResult replay(Path path, Catalog catalog) throws IOException {
+        Map<String, Long> spentByCustomer = new HashMap<>();
+        long validLength = 0;
+        int orders = 0;
+        int unappliedLines = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    body = in.readNBytes(length);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if (body.length != length || (int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body));
+                String customer = payload.readUTF();
+                long subtotal = Money.subtract(payload.readLong(), payload.readLong());
+                long total = Money.add(subtotal, payload.readLong());
+                int lines = payload.readInt();
+                for (int i = 0; i < lines; i++) {
+                    String sku = payload.readUTF();
+                    int quantity = payload.readInt();
+                    payload.readLong();
+                    if (catalog == null) {
+                        continue;
+                    }
+                    Product product = catalog.getProduct(sku);
+                    if (product == null || !product.reduceQuantity(quantity)) {
+                        unappliedLines++;
+                    }
+                }
+                spentByCustomer.merge(customer, total, Money::add);
+                validLength += HEADER_BYTES + length;
+                orders++;
+            }
+        }
+        return new ReplayResult(orders, unappliedLines, spentByCustomer, validLength);
+    }
+
+    public static class ReplayResult {
+
+        private final int orders;
+        private final int unappliedLines;
+        private final Map<String, Long> spentByCustomer;
+        private final long validLength;
+
+        private ReplayResult(int orders, int unappliedLines, Map<String, Long> spentByCustomer, long validLength) {
+            this.orders = orders;
+            this.unappliedLines = unappliedLines;
+            this.spentByCustomer = spentByCustomer;
+            this.validLength = validLength;
+        }
+
+        public int getOrders() {
+            return this.orders;
+        }
+
+        /**
+         * @return logged lines whose stock could not be taken from the catalog
+         */
+        public int getUnappliedLines() {
+            return this.unappliedLines;
+        }
+
+        /**
+         * Customers have no id, so customers sharing a name share a total. Nothing
+         * here is applied to any wallet: balances are not restored by a replay.
+         *
+         * @return total charged (subtotal less discount, plus shipping) per customer name, in minor units
+         */
+        public Map<String, Long> getSpentByCustomer() {
+            return Collections.unmodifiableMap(this.spentByCustomer);
+        }
+
+        public long getValidLength() {
+            return this.validLength;
+        }
+    }
+
+    private static class PendingRecord {
+
+        private final ByteBuffer record;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        private PendingRecord(ByteBuffer record) {
+            this.record = record;
+        }
+    }
+}
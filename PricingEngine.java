@@ -0,0 +1,173 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates the discount on a cart against the currently published {@link PricingRules}.
+ * <p>
+ * Publishing compiles the rules into one immutable lookup structure: a single
+ * SKU-keyed map holding each SKU's percentage and buy-X-get-Y rule, a category
+ * map, and the thresholds as sorted arrays. Evaluating a cart is then one pass
+ * over its lines with at most two hash lookups each, plus a binary search over
+ * the thresholds, no matter how many rules are active.
+ * <p>
+ * The compiled rules are swapped in with a single volatile write, so a new rule
+ * set goes live without pausing checkouts; an evaluation already in progress
+ * finishes against the rules it started with.
+ */
+public class PricingEngine {
+
+    private static final AtomicLong NEXT_VERSION = new AtomicLong();
+    private static final Rules NO_RULES = new Rules(new PricingRules());
+
+    private volatile Rules rules = NO_RULES;
+
+    public PricingEngine() {
+    }
+
+    public PricingEngine(PricingRules rules) {
+        if (!publish(rules)) {
+            throw new IllegalArgumentException("Invalid pricing rules");
+        }
+    }
+
+    /**
+     * Compiles the rules and atomically replaces the active rule set
+     */
+    public boolean publish(PricingRules rules) {
+        if (rules == null) {
+            return false;
+        }
+        this.rules = rules.isEmpty() ? NO_RULES : new Rules(rules);
+        return true;
+    }
+
+    /**
+     * @return identifies the active rule set; differs across every publish on every engine,
+     * except that all engines without rules share version 0
+     */
+    public long getRulesVersion() {
+        return this.rules.version;
+    }
+
+    /**
+     * @return the total discount on the cart in minor units, never more than its subtotal
+     */
+    public long getDiscountMinor(Cart cart) {
+        if (cart == null) {
+            throw new IllegalArgumentException("Invalid cart");
+        }
+        Rules active = this.rules;
+        if (active == NO_RULES) {
+            return 0;
+        }
+        Evaluation evaluation = new Evaluation(active);
+        cart.forEachItem(evaluation);
+        long subtotal = cart.getTotalPriceMinor();
+        long discount = Math.min(evaluation.discount, subtotal);
+        return Money.add(discount, active.thresholdDiscount(Money.subtract(subtotal, discount)));
+    }
+
+    /**
+     * Rules for one SKU, merged at publish time so a line needs a single lookup
+     */
+    private static final class SkuRule {
+
+        private int percent;
+        private int buy;
+        private int free;
+    }
+
+    private static final class Rules {
+
+        private final long version = NEXT_VERSION.getAndIncrement();
+        private final Map<String, SkuRule> skuRules = new HashMap<>();
+        private final Map<String, Integer> categoryPercentOff;
+        private final long[] minSubtotals;
+        private final long[] amountsOff;
+        private final int[] percentsOff;
+
+        private Rules(PricingRules source) {
+            source.skuPercentOff.forEach((sku, percent) ->
+                    this.skuRules.computeIfAbsent(sku, key -> new SkuRule()).percent = percent);
+            source.skuBuyGetFree.forEach((sku, buyFree) -> {
+                SkuRule rule = this.skuRules.computeIfAbsent(sku, key -> new SkuRule());
+                rule.buy = buyFree[0];
+                rule.free = buyFree[1];
+            });
+            this.categoryPercentOff = new HashMap<>(source.categoryPercentOff);
+
+            int count = source.thresholds.size();
+            this.minSubtotals = new long[count];
+            this.amountsOff = new long[count];
+            this.percentsOff = new int[count];
+            int i = 0;
+            for (Map.Entry<Long, long[]> threshold : source.thresholds.entrySet()) {
+                this.minSubtotals[i] = threshold.getKey();
+                this.amountsOff[i] = threshold.getValue()[0];
+                this.percentsOff[i] = (int) threshold.getValue()[1];
+                i++;
+            }
+        }
+
+        private long lineDiscount(Product product, int quantity) {
+            String sku = product.getSku();
+            SkuRule rule = sku == null ? null : this.skuRules.get(sku);
+            String category = product.getCategory();
+            Integer categoryPercent = category == null ? null : this.categoryPercentOff.get(category);
+            if (rule == null && categoryPercent == null) {
+                return 0;
+            }
+
+            int paidUnits = quantity;
+            int percent = categoryPercent == null ? 0 : categoryPercent;
+            if (rule != null) {
+                if (rule.buy > 0) {
+                    paidUnits -= quantity / (rule.buy + rule.free) * rule.free;
+                }
+                percent = Math.max(percent, rule.percent);
+            }
+            long listPrice = Money.multiply(product.getPriceMinor(), quantity);
+            long paidPrice = Money.multiply(product.getPriceMinor(), paidUnits);
+            return listPrice - paidPrice + Money.percentOf(paidPrice, percent);
+        }
+
+        /**
+         * Discount of the highest threshold the subtotal reaches, capped at the subtotal
+         */
+        private long thresholdDiscount(long subtotal) {
+            int low = 0;
+            int high = this.minSubtotals.length - 1;
+            int reached = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (this.minSubtotals[mid] <= subtotal) {
+                    reached = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (reached < 0) {
+                return 0;
+            }
+            long discount = Money.add(this.amountsOff[reached], Money.percentOf(subtotal, this.percentsOff[reached]));
+            return Math.min(discount, subtotal);
+        }
+    }
+
+    private static final class Evaluation implements CartLineConsumer {
+
+        private final Rules rules;
+        private long discount;
+
+        private Evaluation(Rules rules) {
+            this.rules = rules;
+        }
+
+        @Override
+        public void accept(Product product, int quantity) {
+            this.discount = Money.add(this.discount, this.rules.lineDiscount(product, quantity));
+        }
+    }
+}
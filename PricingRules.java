@@ -0,0 +1,85 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of discount rules, collected here and compiled by {@link PricingEngine#publish(PricingRules)}.
+ * <p>
+ * Rules target a SKU, a product category or the cart subtotal:
+ * <ul>
+ * <li>percent off a SKU or a category; when both match a line, the larger one applies</li>
+ * <li>buy X get Y free on a SKU, applied before any percentage</li>
+ * <li>a fixed amount and/or percent off once the discounted subtotal reaches a threshold;
+ * only the highest threshold reached applies</li>
+ * </ul>
+ * Adding a second rule of the same kind for the same target replaces the first.
+ * The builder is not thread-safe; publishing takes a copy, so it may be reused afterwards.
+ */
+public class PricingRules {
+
+    final Map<String, Integer> skuPercentOff = new HashMap<>();
+    final Map<String, int[]> skuBuyGetFree = new HashMap<>();
+    final Map<String, Integer> categoryPercentOff = new HashMap<>();
+    // Minimum subtotal in minor units -> {amount off in minor units, percent off}
+    final TreeMap<Long, long[]> thresholds = new TreeMap<>();
+
+    public boolean addSkuPercentOff(String sku, int percent) {
+        if (!isValidKey(sku) || !isValidPercent(percent)) {
+            return false;
+        }
+        this.skuPercentOff.put(sku, percent);
+        return true;
+    }
+
+    public boolean addCategoryPercentOff(String category, int percent) {
+        if (!isValidKey(category) || !isValidPercent(percent)) {
+            return false;
+        }
+        this.categoryPercentOff.put(category, percent);
+        return true;
+    }
+
+    /**
+     * In every group of {@code buy + free} units of the SKU, the last {@code free} units cost nothing
+     */
+    public boolean addBuyGetFree(String sku, int buy, int free) {
+        if (!isValidKey(sku) || buy <= 0 || free <= 0 || buy > Integer.MAX_VALUE - free) {
+            return false;
+        }
+        this.skuBuyGetFree.put(sku, new int[]{buy, free});
+        return true;
+    }
+
+    /**
+     * Takes a fixed amount and a percentage off carts whose discounted subtotal reaches {@code minSubtotal}
+     */
+    public boolean addThreshold(double minSubtotal, double amountOff, int percent) {
+        if (!Money.isPositiveAmount(minSubtotal) || !(amountOff >= 0) || (percent != 0 && !isValidPercent(percent))) {
+            return false;
+        }
+        long amountOffMinor;
+        try {
+            amountOffMinor = Money.ofMajor(amountOff);
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        if (amountOffMinor == 0 && percent == 0) {
+            return false;
+        }
+        this.thresholds.put(Money.ofMajor(minSubtotal), new long[]{amountOffMinor, percent});
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return this.skuPercentOff.isEmpty() && this.skuBuyGetFree.isEmpty()
+                && this.categoryPercentOff.isEmpty() && this.thresholds.isEmpty();
+    }
+
+    private static boolean isValidKey(String key) {
+        return key != null && !key.trim().isEmpty();
+    }
+
+    private static boolean isValidPercent(int percent) {
+        return percent > 0 && percent <= 100;
+    }
+}
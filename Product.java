@@ -1,9 +1,14 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Product {
 
+    private volatile String sku;
+    private volatile String category;
+    private final List<StockListener> stockListeners = new CopyOnWriteArrayList<>();
     private String name;
-    private int quantity;
-    private double price;
+    private StockLevel stock;
+    private long priceMinor;
 
     public Product(String name, int quantity, double price) {
         if (!setName(name)) {
@@ -27,37 +32,127 @@ public class Product {
 
     private boolean setQuantity(int quantity) {
         if (quantity > 0) {
-            this.quantity = quantity;
+            this.stock = new StockLevel(quantity);
             return true;
         }
         return false;
     }
 
     private boolean setPrice(double price) {
-        if (price > 0) {
-            this.price = price;
+        if (Money.isPositiveAmount(price)) {
+            this.priceMinor = Money.ofMajor(price);
             return true;
         }
         return false;
     }
 
+    boolean setSku(String sku) {
+        if (sku == null || sku.trim().isEmpty()) {
+            return false;
+        }
+        synchronized (this) {
+            if (this.sku == null) {
+                this.sku = sku;
+            }
+            return this.sku.equals(sku);
+        }
+    }
+
+    public String getSku() {
+        return this.sku;
+    }
+
+    /**
+     * Groups the product under a category that pricing rules can target, e.g. "dairy"
+     */
+    public boolean setCategory(String category) {
+        if (category != null && !category.trim().isEmpty()) {
+            this.category = category;
+            return true;
+        }
+        return false;
+    }
+
+    public String getCategory() {
+        return this.category;
+    }
+
     public String getName() {
         return this.name;
     }
 
     public int getQuantity() {
-        return this.quantity;
+        return this.stock.getAvailable();
+    }
+
+    public int getReservedQuantity() {
+        return this.stock.getReserved();
     }
 
     public double getPrice() {
-        return this.price;
+        return Money.toMajor(this.priceMinor);
+    }
+
+    public long getPriceMinor() {
+        return this.priceMinor;
     }
 
     public boolean reduceQuantity(int quantity) {
-        if (this.quantity - quantity >= 0) {
-            this.quantity -= quantity;
-            return true;
+        boolean reduced = this.stock.reduce(quantity);
+        if (reduced) {
+            stockTaken();
+        }
+        return reduced;
+    }
+
+    public boolean reserveQuantity(int quantity) {
+        boolean reserved = this.stock.reserve(quantity);
+        if (reserved) {
+            stockTaken();
+        }
+        return reserved;
+    }
+
+    public boolean commitReservation(int quantity) {
+        return this.stock.commit(quantity);
+    }
+
+    public boolean revertCommittedReservation(int quantity) {
+        return this.stock.revertCommit(quantity);
+    }
+
+    public boolean releaseReservation(int quantity) {
+        boolean released = this.stock.release(quantity);
+        if (released) {
+            notifyStockListeners();
+        }
+        return released;
+    }
+
+    /**
+     * Watches for the available stock running out or being replenished
+     */
+    boolean addStockListener(StockListener stockListener) {
+        return stockListener != null && this.stockListeners.add(stockListener);
+    }
+
+    boolean removeStockListener(StockListener stockListener) {
+        return this.stockListeners.remove(stockListener);
+    }
+
+    private void stockTaken() {
+        // Only the change that leaves nothing available needs reporting
+        if (this.stock.getAvailable() == 0) {
+            notifyStockListeners();
+        }
+    }
+
+    private void notifyStockListeners() {
+        if (this.stockListeners.isEmpty()) {
+            return;
+        }
+        for (StockListener listener : this.stockListeners) {
+            listener.stockChanged(this);
         }
-        return false;
     }
 }
@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Token and prefix search over product names, filtered by kind and stock.
+ * <p>
+ * Names are split into lowercase letter-and-digit tokens. Every indexed product
+ * gets a dense int id, and every token a sorted posting list of the ids whose
+ * name contains it, held in a plain {@code int[]}. A query's last token matches
+ * as a prefix (so results can follow the shopper's typing) and the others as
+ * whole tokens: the shortest whole-token list drives the search and the others
+ * are probed by binary search. Each id also has a flags word with its kinds and
+ * whether it is in stock, so filters cost one array read per candidate.
+ * <p>
+ * The in-stock flag follows the product through a {@link StockListener}: the
+ * reservation or sale that leaves nothing available clears it, and a release
+ * sets it again. Queries never lock; adding and removing products are
+ * serialized so posting lists stay sorted.
+ */
+public class ProductSearchIndex implements StockListener {
+
+    public static final int SHIPPABLE = 1;
+    public static final int EXPIRABLE = 1 << 1;
+    public static final int IN_STOCK = 1 << 2;
+    private static final int REMOVED = 1 << 3;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final ConcurrentSkipListMap<String, Postings> terms = new ConcurrentSkipListMap<>();
+    private final Map<Product, Integer> ids = new ConcurrentHashMap<>();
+    private volatile Product[][] products = new Product[0][];
+    private volatile AtomicIntegerArray[] flags = new AtomicIntegerArray[0];
+    private volatile int size;
+
+    /**
+     * Indexes a product under the tokens of its name
+     *
+     * @return false if the product is null or already indexed
+     */
+    public synchronized boolean add(Product product) {
+        if (product == null || this.ids.containsKey(product)) {
+            return false;
+        }
+        int id = this.size;
+        if (id >> CHUNK_BITS == this.products.length) {
+            Product[][] grownProducts = Arrays.copyOf(this.products, this.products.length + 1);
+            grownProducts[grownProducts.length - 1] = new Product[CHUNK_SIZE];
+            AtomicIntegerArray[] grownFlags = Arrays.copyOf(this.flags, this.flags.length + 1);
+            grownFlags[grownFlags.length - 1] = new AtomicIntegerArray(CHUNK_SIZE);
+            this.flags = grownFlags;
+            this.products = grownProducts;
+        }
+        int kinds = (product instanceof Shippable ? SHIPPABLE : 0) | (product instanceof Expirable ? EXPIRABLE : 0);
+        this.products[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)] = product;
+        this.flags[id >> CHUNK_BITS].set(id & (CHUNK_SIZE - 1), kinds);
+        for (String token : new HashSet<>(tokenize(product.getName()))) {
+            this.terms.computeIfAbsent(token, key -> new Postings()).add(id);
+        }
+        this.ids.put(product, id);
+        // Publishes the id to queries; everything above is visible once they read it
+        this.size = id + 1;
+        product.addStockListener(this);
+        stockChanged(product);
+        return true;
+    }
+
+    /**
+     * Drops a product from future results. Its id stays in the posting lists,
+     * flagged as removed.
+     */
+    public synchronized boolean remove(Product product) {
+        Integer id = product == null ? null : this.ids.remove(product);
+        if (id == null) {
+            return false;
+        }
+        product.removeStockListener(this);
+        setFlag(id, REMOVED, true);
+        return true;
+    }
+
+    /**
+     * Re-reads the product's stock after it may have crossed zero. The flag is
+     * checked again after each write, so racing notifications settle on the
+     * stock as it stands once the last of them returns.
+     */
+    @Override
+    public void stockChanged(Product product) {
+        Integer id = this.ids.get(product);
+        if (id == null) {
+            return;
+        }
+        while (true) {
+            boolean inStock = product.getQuantity() > 0;
+            setFlag(id, IN_STOCK, inStock);
+            if ((product.getQuantity() > 0) == inStock) {
+                return;
+            }
+        }
+    }
+
+    private void setFlag(int id, int flag, boolean set) {
+        AtomicIntegerArray chunk = this.flags[id >> CHUNK_BITS];
+        int index = id & (CHUNK_SIZE - 1);
+        int current = chunk.get(index);
+        while (((current & flag) != 0) != set) {
+            int updated = set ? current | flag : current & ~flag;
+            if (chunk.compareAndSet(index, current, updated)) {
+                return;
+            }
+            current = chunk.get(index);
+        }
+    }
+
+    /**
+     * Finds products whose names contain every token of the query, the last one
+     * possibly only as a prefix
+     *
+     * @param required flags every result must carry, e.g. {@code SHIPPABLE | IN_STOCK}
+     * @param limit    maximum number of results
+     * @return matching products, in no particular order of relevance
+     */
+    public List<Product> search(String query, int required, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String prefix = tokens.get(tokens.size() - 1);
+        List<String> whole = tokens.subList(0, tokens.size() - 1);
+        int mask = (required & (SHIPPABLE | EXPIRABLE | IN_STOCK)) | REMOVED;
+        int wanted = required & (SHIPPABLE | EXPIRABLE | IN_STOCK);
+        List<Product> results = new ArrayList<>(Math.min(limit, 64));
+        // Ids past this were added after the query began and may not have their chunk yet
+        int published = this.size;
+        Product[][] products = this.products;
+        AtomicIntegerArray[] flags = this.flags;
+
+        if (whole.isEmpty()) {
+            // A product may carry several tokens with the prefix; report it once
+            Set<Integer> seen = new HashSet<>();
+            for (Postings postings : this.terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                int count = postings.size;
+                int[] docs = postings.docs;
+                for (int i = 0; i < count; i++) {
+                    int id = docs[i];
+                    if (id < published && (flags[id >> CHUNK_BITS].get(id & (CHUNK_SIZE - 1)) & mask) == wanted
+                            && seen.add(id)) {
+                        results.add(products[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)]);
+                        if (results.size() == limit) {
+                            return results;
+                        }
+                    }
+                }
+            }
+            return results;
+        }
+
+        int[][] lists = new int[whole.size()][];
+        int[] counts = new int[whole.size()];
+        int driver = 0;
+        for (int t = 0; t < whole.size(); t++) {
+            Postings postings = this.terms.get(whole.get(t));
+            if (postings == null) {
+                return results;
+            }
+            counts[t] = postings.size;
+            lists[t] = postings.docs;
+            if (counts[t] < counts[driver]) {
+                driver = t;
+            }
+        }
+        for (int i = 0; i < counts[driver]; i++) {
+            int id = lists[driver][i];
+            if (id >= published || (flags[id >> CHUNK_BITS].get(id & (CHUNK_SIZE - 1)) & mask) != wanted) {
+                continue;
+            }
+            boolean matches = true;
+            for (int t = 0; t < lists.length && matches; t++) {
+                matches = t == driver || Arrays.binarySearch(lists[t], 0, counts[t], id) >= 0;
+            }
+            Product product = products[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)];
+            if (matches && hasTokenWithPrefix(product.getName(), prefix)) {
+                results.add(product);
+                if (results.size() == limit) {
+                    return results;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return number of products indexed and not removed
+     */
+    public int size() {
+        return this.ids.size();
+    }
+
+    /**
+     * @return number of distinct tokens across indexed names
+     */
+    public int getTokenCount() {
+        return this.terms.size();
+    }
+
+    private static boolean hasTokenWithPrefix(String name, String prefix) {
+        for (String token : tokenize(name)) {
+            if (token.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Ids containing one token, in ascending order. Appends publish the element
+     * before the size and never shrink an array readers may still hold, so a
+     * reader that reads {@code size} first sees a consistent prefix.
+     */
+    private static class Postings {
+
+        private volatile int[] docs = new int[4];
+        private volatile int size;
+
+        private void add(int id) {
+            int[] current = this.docs;
+            if (this.size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[this.size] = id;
+            this.docs = current;
+            this.size++;
+        }
+    }
+}
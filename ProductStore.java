@@ -0,0 +1,329 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Product records kept off the Java heap, addressed by int handles.
+ * <p>
+ * Each product is a fixed-width 48-byte record in a direct {@link ByteBuffer}
+ * page: stock, price, shipping fees, weight, expiry epoch-day, kind and the
+ * offset of its name. Names are interned into a separate off-heap arena, so a
+ * million products sharing a thousand names store a thousand names. The only
+ * heap objects are the page array and the open-addressing name table, whatever
+ * the number of products, so the collector has nothing to trace per SKU.
+ * <p>
+ * Stock packs available and reserved units into one long and moves with
+ * compare-and-set, with the same reserve/commit/release semantics as
+ * {@link StockLevel}. Records are never removed; a handle stays valid for the
+ * life of the store. Adding products is serialized, reading them is lock-free.
+ */
+public class ProductStore {
+
+    private static final int RECORD_BYTES = 48;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_RECORDS = 1 << PAGE_BITS;
+
+    private static final int KIND_SHIPPABLE = 1;
+    private static final int KIND_EXPIRABLE = 2;
+
+    // Record field offsets
+    private static final int STOCK = 0;
+    private static final int PRICE = 8;
+    private static final int SHIPPING_FEES = 16;
+    private static final int WEIGHT = 24;
+    private static final int EXPIRY_EPOCH_DAY = 32;
+    private static final int NAME = 40;
+    private static final int KIND = 44;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+    private volatile int size;
+    // Interned names: a 2-byte length then UTF-8 bytes, looked up through an open-addressing table
+    private ByteBuffer arena = ByteBuffer.allocateDirect(1 << 16);
+    private volatile ByteBuffer arenaView = this.arena.duplicate();
+    private int[] nameTable = new int[1 << 10];
+    private int names;
+
+    public int addProduct(String name, int quantity, double price) {
+        return add(0, name, quantity, price, 0.0, 0.0, null);
+    }
+
+    public int addShippable(String name, int quantity, double price, double weight, double shippingFees) {
+        return add(KIND_SHIPPABLE, name, quantity, price, weight, shippingFees, null);
+    }
+
+    public int addExpirable(String name, int quantity, double price, LocalDate expiryDate) {
+        return add(KIND_EXPIRABLE, name, quantity, price, 0.0, 0.0, expiryDate);
+    }
+
+    public int addExpirableShippable(String name, int quantity, double price, LocalDate expiryDate,
+                                     double weight, double shippingFees) {
+        return add(KIND_SHIPPABLE | KIND_EXPIRABLE, name, quantity, price, weight, shippingFees, expiryDate);
+    }
+
+    /**
+     * Validates like the matching {@link Product} constructor, then appends a record
+     *
+     * @return the new product's handle
+     */
+    private synchronized int add(int kind, String name, int quantity, double price, double weight,
+                                 double shippingFees, LocalDate expiryDate) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid name");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Invalid quantity");
+        }
+        if (!Money.isPositiveAmount(price)) {
+            throw new IllegalArgumentException("Invalid price");
+        }
+        if ((kind & KIND_SHIPPABLE) != 0 && !(weight > 0)) {
+            throw new IllegalArgumentException("Invalid weight");
+        }
+        if ((kind & KIND_SHIPPABLE) != 0 && !Money.isPositiveAmount(shippingFees)) {
+            throw new IllegalArgumentException("Invalid shipping fees");
+        }
+        if ((kind & KIND_EXPIRABLE) != 0 && (expiryDate == null || !expiryDate.isAfter(ExpiryClock.today()))) {
+            throw new IllegalArgumentException("Invalid expiry date");
+        }
+        int handle = this.size;
+        if (handle == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Product store is full");
+        }
+        if (handle >>> PAGE_BITS == this.pages.length) {
+            ByteBuffer[] grown = Arrays.copyOf(this.pages, this.pages.length + 1);
+            grown[grown.length - 1] = ByteBuffer.allocateDirect(PAGE_RECORDS * RECORD_BYTES).order(ByteOrder.nativeOrder());
+            this.pages = grown;
+        }
+        ByteBuffer page = this.pages[handle >>> PAGE_BITS];
+        int base = (handle & (PAGE_RECORDS - 1)) * RECORD_BYTES;
+        page.putLong(base + STOCK, (long) quantity << 32);
+        page.putLong(base + PRICE, Money.ofMajor(price));
+        page.putLong(base + SHIPPING_FEES, (kind & KIND_SHIPPABLE) != 0 ? Money.ofMajor(shippingFees) : 0);
+        page.putDouble(base + WEIGHT, (kind & KIND_SHIPPABLE) != 0 ? weight : 0.0);
+        page.putLong(base + EXPIRY_EPOCH_DAY, expiryDate != null ? expiryDate.toEpochDay() : 0);
+        page.putInt(base + NAME, intern(name));
+        page.putInt(base + KIND, kind);
+        // Publishes the record; readers check handles against the size first
+        this.size = handle + 1;
+        return handle;
+    }
+
+    /**
+     * @return the arena offset of the name, storing it on first use
+     */
+    private int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid name");
+        }
+        int hash = Arrays.hashCode(bytes);
+        int mask = this.nameTable.length - 1;
+        int slot = mix(hash) & mask;
+        for (int entry; (entry = this.nameTable[slot]) != 0; slot = (slot + 1) & mask) {
+            if (nameEquals(entry - 1, bytes)) {
+                return entry - 1;
+            }
+        }
+        if (this.arena.remaining() < 2 + bytes.length) {
+            long capacity = Math.max(2L * this.arena.capacity(), this.arena.capacity() + 2L + bytes.length);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Product name arena is full");
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+            grown.put(this.arena.flip());
+            this.arena = grown;
+        }
+        int offset = this.arena.position();
+        this.arena.putShort((short) bytes.length).put(bytes);
+        this.arenaView = this.arena.duplicate();
+        this.nameTable[slot] = offset + 1;
+        if (++this.names * 2 > this.nameTable.length) {
+            rehashNames();
+        }
+        return offset;
+    }
+
+    private boolean nameEquals(int offset, byte[] bytes) {
+        if ((this.arena.getShort(offset) & 0xFFFF) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (this.arena.get(offset + 2 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashNames() {
+        int[] table = new int[this.nameTable.length * 2];
+        int mask = table.length - 1;
+        for (int entry : this.nameTable) {
+            if (entry != 0) {
+                int length = this.arena.getShort(entry - 1) & 0xFFFF;
+                byte[] bytes = new byte[length];
+                this.arena.get(entry + 1, bytes);
+                int slot = mix(Arrays.hashCode(bytes)) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry;
+            }
+        }
+        this.nameTable = table;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return number of distinct names in the arena
+     */
+    public synchronized int getNameCount() {
+        return this.names;
+    }
+
+    /**
+     * @return bytes held off-heap by record pages and the name arena
+     */
+    public synchronized long getOffHeapBytes() {
+        return (long) this.pages.length * PAGE_RECORDS * RECORD_BYTES + this.arena.capacity();
+    }
+
+    public boolean isValid(int handle) {
+        return handle >= 0 && handle < this.size;
+    }
+
+    private ByteBuffer page(int handle) {
+        if (!isValid(handle)) {
+            throw new IllegalArgumentException("Invalid product handle: " + handle);
+        }
+        return this.pages[handle >>> PAGE_BITS];
+    }
+
+    private static int base(int handle) {
+        return (handle & (PAGE_RECORDS - 1)) * RECORD_BYTES;
+    }
+
+    public String getName(int handle) {
+        int offset = page(handle).getInt(base(handle) + NAME);
+        ByteBuffer arena = this.arenaView;
+        byte[] bytes = new byte[arena.getShort(offset) & 0xFFFF];
+        arena.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the name without building a {@code String} when it is plain ASCII
+     *
+     * @return number of chars appended
+     */
+    public int appendName(int handle, StringBuilder to) {
+        int offset = page(handle).getInt(base(handle) + NAME);
+        ByteBuffer arena = this.arenaView;
+        int length = arena.getShort(offset) & 0xFFFF;
+        for (int i = 0; i < length; i++) {
+            if (arena.get(offset + 2 + i) < 0) {
+                String name = getName(handle);
+                to.append(name);
+                return name.length();
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            to.append((char) arena.get(offset + 2 + i));
+        }
+        return length;
+    }
+
+    public boolean isShippable(int handle) {
+        return (page(handle).getInt(base(handle) + KIND) & KIND_SHIPPABLE) != 0;
+    }
+
+    public boolean isExpirable(int handle) {
+        return (page(handle).getInt(base(handle) + KIND) & KIND_EXPIRABLE) != 0;
+    }
+
+    public boolean isExpired(int handle) {
+        return isExpirable(handle) && page(handle).getLong(base(handle) + EXPIRY_EPOCH_DAY) < ExpiryClock.todayEpochDay();
+    }
+
+    public LocalDate getExpiryDate(int handle) {
+        return isExpirable(handle) ? LocalDate.ofEpochDay(page(handle).getLong(base(handle) + EXPIRY_EPOCH_DAY)) : null;
+    }
+
+    public long getPriceMinor(int handle) {
+        return page(handle).getLong(base(handle) + PRICE);
+    }
+
+    public long getShippingFeesMinor(int handle) {
+        return page(handle).getLong(base(handle) + SHIPPING_FEES);
+    }
+
+    public double getWeight(int handle) {
+        return page(handle).getDouble(base(handle) + WEIGHT);
+    }
+
+    public int getQuantity(int handle) {
+        return (int) (stock(handle) >>> 32);
+    }
+
+    public int getReservedQuantity(int handle) {
+        return (int) stock(handle);
+    }
+
+    private long stock(int handle) {
+        return (long) LONGS.getVolatile(page(handle), base(handle) + STOCK);
+    }
+
+    /**
+     * Moves units from available stock into the reserved pool
+     */
+    public boolean reserveQuantity(int handle, int quantity) {
+        return quantity > 0 && moveStock(handle, -quantity, quantity);
+    }
+
+    /**
+     * Returns reserved units to available stock
+     */
+    public boolean releaseReservation(int handle, int quantity) {
+        return quantity > 0 && moveStock(handle, quantity, -quantity);
+    }
+
+    /**
+     * Permanently removes reserved units (the sale is final)
+     */
+    public boolean commitReservation(int handle, int quantity) {
+        return quantity > 0 && moveStock(handle, 0, -quantity);
+    }
+
+    public boolean revertCommittedReservation(int handle, int quantity) {
+        return quantity > 0 && moveStock(handle, 0, quantity);
+    }
+
+    private boolean moveStock(int handle, int availableDelta, int reservedDelta) {
+        ByteBuffer page = page(handle);
+        int index = base(handle) + STOCK;
+        while (true) {
+            long current = (long) LONGS.getVolatile(page, index);
+            long available = (current >>> 32) + availableDelta;
+            long reserved = (current & 0xFFFFFFFFL) + reservedDelta;
+            if (available < 0 || reserved < 0 || available > Integer.MAX_VALUE || reserved > Integer.MAX_VALUE) {
+                return false;
+            }
+            if (LONGS.compareAndSet(page, index, current, available << 32 | reserved)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of {@link CartQuote}s keyed by cart contents.
+ * <p>
+ * The key holds every line's product, quantity, category, price, shipping fee
+ * and weight, plus the version of the cart's pricing rules. Two carts with the
+ * same lines in the same order share a quote. Products are compared by
+ * identity, so relisting a SKU, a fee or weight change, a category change or a
+ * newly published rule set all produce a different key. Stale quotes are
+ * therefore never served; they simply stop being hit and age out of the LRU
+ * order.
+ * <p>
+ * Building a key is one walk over the cart, so a repeat quote costs
+ * microseconds instead of a fresh {@link ShippingService} and receipt render.
+ */
+public class QuoteCache {
+
+    private static final ThreadLocal<ReceiptRenderer> RENDERERS = ThreadLocal.withInitial(ReceiptRenderer::new);
+
+    private final int maxEntries;
+    private final Map<Key, CartQuote> quotes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public QuoteCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid cache size");
+        }
+        this.maxEntries = maxEntries;
+        this.quotes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CartQuote> eldest) {
+                return size() > QuoteCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached quote for the cart's current contents, computing it on a miss
+     */
+    public CartQuote quote(Cart cart) {
+        if (cart == null || cart.isEmpty()) {
+            throw new IllegalArgumentException("Cart cannot be empty");
+        }
+        Key key = new Key(cart);
+        CartQuote quote;
+        synchronized (this.quotes) {
+            quote = this.quotes.get(key);
+        }
+        if (quote != null) {
+            this.hits.increment();
+            return quote;
+        }
+        this.misses.increment();
+
+        quote = compute(cart);
+        // Rules or fees changed while computing may already be baked into the quote, so it is not cached
+        if (key.equals(new Key(cart))) {
+            synchronized (this.quotes) {
+                this.quotes.put(key, quote);
+            }
+        }
+        return quote;
+    }
+
+    private static CartQuote compute(Cart cart) {
+        ShippingService shippingService = new ShippingService(cart.getItems());
+        long discount = cart.getDiscountMinor();
+        StringBuilder receipt = new StringBuilder();
+        try {
+            RENDERERS.get().render(cart, shippingService, discount, null, receipt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new CartQuote(cart.getTotalPriceMinor(), discount, shippingService.getTotalShippingFeesMinor(),
+                shippingService.getTotalWeight(), receipt.toString());
+    }
+
+    private static long rulesVersion(Cart cart) {
+        PricingEngine engine = cart.getPricingEngine();
+        return engine == null ? -1 : engine.getRulesVersion();
+    }
+
+    public void clear() {
+        synchronized (this.quotes) {
+            this.quotes.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.quotes) {
+            return this.quotes.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Everything a quote depends on, compared line by line
+     */
+    private static final class Key implements CartLineConsumer {
+
+        private final Product[] products;
+        private final String[] categories;
+        private final int[] quantities;
+        // Price then shipping fee per line, in minor units
+        private final long[] amounts;
+        private final double[] weights;
+        private final long rulesVersion;
+        private final int hash;
+        private int line;
+
+        private Key(Cart cart) {
+            int lines = cart.getLineCount();
+            this.products = new Product[lines];
+            this.categories = new String[lines];
+            this.quantities = new int[lines];
+            this.amounts = new long[lines * 2];
+            this.weights = new double[lines];
+            this.rulesVersion = rulesVersion(cart);
+            cart.forEachItem(this);
+
+            int h = Long.hashCode(this.rulesVersion);
+            h = 31 * h + Arrays.hashCode(this.products);
+            h = 31 * h + Arrays.hashCode(this.categories);
+            h = 31 * h + Arrays.hashCode(this.amounts);
+            h = 31 * h + Arrays.hashCode(this.weights);
+            this.hash = 31 * h + Arrays.hashCode(this.quantities);
+        }
+
+        @Override
+        public void accept(Product product, int quantity) {
+            this.products[this.line] = product;
+            this.categories[this.line] = product.getCategory();
+            this.quantities[this.line] = quantity;
+            this.amounts[this.line * 2] = product.getPriceMinor();
+            if (product instanceof Shippable shippable) {
+                this.amounts[this.line * 2 + 1] = shippable.getShippingFeesMinor();
+                this.weights[this.line] = shippable.getWeight();
+            }
+            this.line++;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key key)) {
+                return false;
+            }
+            return this.hash == key.hash && this.rulesVersion == key.rulesVersion
+                    && Arrays.equals(this.quantities, key.quantities) && Arrays.equals(this.products, key.products)
+                    && Arrays.equals(this.categories, key.categories) && Arrays.equals(this.amounts, key.amounts)
+                    && Arrays.equals(this.weights, key.weights);
+        }
+    }
+}
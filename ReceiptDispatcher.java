@@ -0,0 +1,326 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Renders and writes checkout receipts on background threads.
+ * <p>
+ * A checkout hands its completed {@link CheckoutService} and the sink it was
+ * given to {@link #dispatch(CheckoutService, Appendable)} and returns at once.
+ * Jobs go through a bounded ring buffer in which each slot carries a sequence
+ * number, so producers and workers claim slots with one compare-and-set and
+ * never lock. Each worker drains up to a batch of jobs at a time, renders
+ * consecutive receipts for the same sink into one buffer and writes that buffer
+ * with a single append and flush, holding the sink's monitor so receipts from
+ * different workers never interleave. Receipts may reach a sink out of
+ * checkout order.
+ * <p>
+ * When the ring is full, producers wait for a free slot rather than dropping
+ * receipts; how often and for how long they waited is reported alongside the
+ * queue depth. A cart must not be changed until its receipt has been written,
+ * since the receipt is rendered from the cart. Closing waits for dispatches
+ * already under way, so every receipt accepted before {@link #close()} is
+ * written.
+ */
+public class ReceiptDispatcher implements AutoCloseable {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final Job[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final int batchSize;
+    private final List<Thread> workers = new ArrayList<>();
+    // Dispatches past the closed check; close waits for them before the final drain
+    private final AtomicInteger activeProducers = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder producerStalls = new LongAdder();
+    private final LongAdder producerStallNanos = new LongAdder();
+
+    /**
+     * @param capacity  receipts that can wait in the queue, rounded up to a power of two
+     * @param workers   background threads rendering and writing receipts
+     * @param batchSize receipts a worker takes off the queue at a time
+     */
+    public ReceiptDispatcher(int capacity, int workers, int batchSize) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid queue capacity");
+        }
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Invalid worker count");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size");
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        this.slots = new Job[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.batchSize = batchSize;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::drainLoop, "receipt-dispatch-" + i);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues the receipt of a completed checkout for a background worker to
+     * render into {@code out}, waiting for a free slot if the queue is full
+     *
+     * @throws IllegalStateException if the dispatcher has been closed
+     */
+    public void dispatch(CheckoutService checkout, Appendable out) {
+        if (checkout == null || out == null) {
+            throw new IllegalArgumentException("Invalid receipt dispatch");
+        }
+        long start = System.nanoTime();
+        Job job = new Job(checkout, out);
+        long stalledSince = 0;
+        this.activeProducers.incrementAndGet();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Receipt dispatcher is closed");
+            }
+            while (!offer(job)) {
+                if (stalledSince == 0) {
+                    stalledSince = System.nanoTime();
+                    this.producerStalls.increment();
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        } finally {
+            this.activeProducers.decrementAndGet();
+        }
+        if (stalledSince != 0) {
+            this.producerStallNanos.add(System.nanoTime() - stalledSince);
+        }
+        this.dispatched.increment();
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.RECEIPT_DISPATCH, start);
+    }
+
+    private boolean offer(Job job) {
+        while (true) {
+            long position = this.tail.get();
+            int index = (int) position & this.mask;
+            long sequence = this.sequences.get(index);
+            if (sequence == position) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.slots[index] = job;
+                    // Hands the slot to workers; the job write above happens-before their read
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    private Job poll() {
+        while (true) {
+            long position = this.head.get();
+            int index = (int) position & this.mask;
+            long sequence = this.sequences.get(index);
+            if (sequence == position + 1) {
+                if (this.head.compareAndSet(position, position + 1)) {
+                    Job job = this.slots[index];
+                    this.slots[index] = null;
+                    // Frees the slot for the producer one lap ahead
+                    this.sequences.set(index, position + this.slots.length);
+                    return job;
+                }
+            } else if (sequence < position + 1) {
+                return null;
+            }
+        }
+    }
+
+    private void drainLoop() {
+        Job[] batch = new Job[this.batchSize];
+        StringBuilder pending = new StringBuilder(4096);
+        while (true) {
+            int count = 0;
+            Job job;
+            while (count < batch.length && (job = poll()) != null) {
+                batch[count++] = job;
+            }
+            if (count == 0) {
+                if (this.closed && this.head.get() == this.tail.get()) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            writeBatch(batch, count, pending);
+        }
+    }
+
+    /**
+     * Renders consecutive receipts bound for the same sink into one buffer and writes it in one go
+     */
+    private void writeBatch(Job[] batch, int count, StringBuilder pending) {
+        int first = 0;
+        for (int i = 0; i <= count; i++) {
+            if (i < count && batch[i].out == batch[first].out) {
+                continue;
+            }
+            pending.setLength(0);
+            int rendered = 0;
+            for (int j = first; j < i; j++) {
+                int mark = pending.length();
+                try {
+                    batch[j].checkout.generateReceipt(pending);
+                    rendered++;
+                } catch (RuntimeException e) {
+                    // Drops the half-rendered receipt so it never reaches the sink
+                    pending.setLength(mark);
+                    this.failures.increment();
+                }
+            }
+            Appendable out = batch[first].out;
+            try {
+                synchronized (out) {
+                    out.append(pending);
+                    if (out instanceof Flushable flushable) {
+                        flushable.flush();
+                    }
+                }
+                this.written.add(rendered);
+            } catch (IOException | UncheckedIOException e) {
+                this.failures.add(rendered);
+            }
+            first = i;
+        }
+        for (int i = 0; i < count; i++) {
+            batch[i] = null;
+        }
+        this.batches.increment();
+    }
+
+    /**
+     * Waits until every receipt dispatched so far has been written or has failed
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (this.written.sum() + this.failures.sum() < this.dispatched.sum()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting receipts and waits for the workers to write the ones
+     * already queued. If interrupted, returns early with the interrupt flag set.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        // A producer that passed the closed check may still be filling a slot
+        while (this.activeProducers.get() > 0) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        try {
+            for (Thread worker : this.workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Workers may have seen the queue empty just before a last slot was published
+        Job[] batch = new Job[this.batchSize];
+        StringBuilder pending = new StringBuilder();
+        int count;
+        do {
+            count = 0;
+            Job job;
+            while (count < batch.length && (job = poll()) != null) {
+                batch[count++] = job;
+            }
+            if (count > 0) {
+                writeBatch(batch, count, pending);
+            }
+        } while (count > 0);
+    }
+
+    public int getCapacity() {
+        return this.slots.length;
+    }
+
+    /**
+     * @return receipts queued and not yet taken by a worker
+     */
+    public int getQueueDepth() {
+        return (int) Math.max(0, this.tail.get() - this.head.get());
+    }
+
+    public long getDispatched() {
+        return this.dispatched.sum();
+    }
+
+    public long getWritten() {
+        return this.written.sum();
+    }
+
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    /**
+     * @return receipts that could not be rendered or written to their sink
+     */
+    public long getFailures() {
+        return this.failures.sum();
+    }
+
+    /**
+     * @return dispatches that found the queue full and had to wait
+     */
+    public long getProducerStalls() {
+        return this.producerStalls.sum();
+    }
+
+    public long getProducerStallNanos() {
+        return this.producerStallNanos.sum();
+    }
+
+    private static class Job {
+
+        private final CheckoutService checkout;
+        private final Appendable out;
+
+        private Job(CheckoutService checkout, Appendable out) {
+            this.checkout = checkout;
+            this.out = out;
+        }
+    }
+}
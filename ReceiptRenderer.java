@@ -0,0 +1,225 @@
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * Renders the shipment notice and checkout receipt into a reusable buffer.
+ * <p>
+ * The output is byte-for-byte what the original {@code String.format} based
+ * receipt produced, but numbers and padding are written by hand so rendering a
+ * receipt allocates nothing beyond the sink's own work. A renderer keeps its
+ * buffer between calls and is therefore not thread-safe; use one per thread.
+ */
+public class ReceiptRenderer {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final int NAME_WIDTH = 12;
+    // Beyond this magnitude a double has no fractional digits worth rounding by hand
+    private static final double MAX_FAST_VALUE = 1e15;
+    private static final double TIE_TOLERANCE = 1e-6;
+
+    private final StringBuilder buffer = new StringBuilder(512);
+
+    /**
+     * Writes the full receipt, exactly as {@code CheckoutService.generateReceipt()} prints it, to the sink
+     */
+    public void render(Cart cart, ShippingService shippingService, Appendable out) throws IOException {
+        render(cart, shippingService, null, out);
+    }
+
+    /**
+     * Same receipt, with the weight of each planned parcel listed under the total package weight
+     *
+     * @param planner splits the shipment into parcels, or null to ship a single package
+     */
+    public void render(Cart cart, ShippingService shippingService, ShipmentPlanner planner, Appendable out)
+            throws IOException {
+        render(cart, shippingService, cart.getDiscountMinor(), planner, out);
+    }
+
+    /**
+     * Same receipt, with a discount line under the subtotal whenever the discount is not zero
+     *
+     * @param discountMinor discount charged on the subtotal, in minor units
+     */
+    public void render(Cart cart, ShippingService shippingService, long discountMinor, ShipmentPlanner planner,
+                       Appendable out) throws IOException {
+        this.buffer.setLength(0);
+        appendShipmentNotice(cart, shippingService);
+        if (planner != null) {
+            appendParcels(planner.plan(shippingService));
+        }
+        this.buffer.append("\n\n");
+        appendCheckoutReceipt(cart, shippingService, discountMinor);
+        this.buffer.append('\n').append(LINE_SEPARATOR);
+        out.append(this.buffer);
+    }
+
+    /**
+     * Same receipt for a cart of {@link ProductStore} handles, with names copied
+     * straight out of the store's name arena
+     */
+    public void render(StoreCart cart, ShippingService shippingService, Appendable out) throws IOException {
+        ProductStore store = cart.getStore();
+        this.buffer.setLength(0);
+        this.buffer.append("** Shipment notice **\n");
+        cart.forEachItem((handle, quantity) -> {
+            if (store.isShippable(handle)) {
+                appendStoredName(store, handle, quantity);
+                appendFixed(store.getWeight(handle) * quantity * 1000, 0); // Convert kg to grams
+                this.buffer.append('g').append(LINE_SEPARATOR);
+            }
+        });
+        this.buffer.append("Total package weight ");
+        appendFixed(shippingService.getTotalWeight(), 1);
+        this.buffer.append("kg");
+        this.buffer.append("\n\n");
+
+        this.buffer.append("** Checkout receipt **\n");
+        cart.forEachItem((handle, quantity) -> {
+            appendStoredName(store, handle, quantity);
+            this.buffer.append(Money.roundToMajor(Money.multiply(store.getPriceMinor(handle), quantity)));
+            this.buffer.append(LINE_SEPARATOR);
+        });
+        this.buffer.append("----------------------\n");
+        appendTotals(cart.getTotalPriceMinor(), 0, shippingService.getTotalShippingFeesMinor());
+        this.buffer.append('\n').append(LINE_SEPARATOR);
+        out.append(this.buffer);
+    }
+
+    private void appendStoredName(ProductStore store, int handle, int quantity) {
+        this.buffer.append(quantity).append("x ");
+        for (int i = store.appendName(handle, this.buffer); i < NAME_WIDTH; i++) {
+            this.buffer.append(' ');
+        }
+        this.buffer.append(' ');
+    }
+
+    /**
+     * Shipment notice for shippable items only, e.g. "1x Cheese       200g"
+     */
+    private void appendShipmentNotice(Cart cart, ShippingService shippingService) {
+        this.buffer.append("** Shipment notice **\n");
+
+        cart.forEachItem(this::appendShipmentLine);
+
+        this.buffer.append("Total package weight ");
+        appendFixed(shippingService.getTotalWeight(), 1);
+        this.buffer.append("kg");
+    }
+
+    /**
+     * One line per parcel, e.g. "Parcel 1     9.5kg"
+     */
+    private void appendParcels(List<ShipmentPlanner.Parcel> parcels) {
+        for (int i = 0; i < parcels.size(); i++) {
+            this.buffer.append(LINE_SEPARATOR);
+            int labelStart = this.buffer.length();
+            this.buffer.append("Parcel ").append(i + 1);
+            for (int width = this.buffer.length() - labelStart; width < NAME_WIDTH; width++) {
+                this.buffer.append(' ');
+            }
+            this.buffer.append(' ');
+            appendFixed(parcels.get(i).getWeight(), 1);
+            this.buffer.append("kg");
+        }
+    }
+
+    /**
+     * Checkout receipt for all items, e.g. "2x Cheese       200"
+     */
+    private void appendCheckoutReceipt(Cart cart, ShippingService shippingService, long discount) {
+        this.buffer.append("** Checkout receipt **\n");
+
+        cart.forEachItem(this::appendReceiptLine);
+
+        this.buffer.append("----------------------\n");
+
+        appendTotals(cart.getTotalPriceMinor(), discount, shippingService.getTotalShippingFeesMinor());
+    }
+
+    private void appendTotals(long subtotal, long discount, long shipping) {
+        long total = Money.add(Money.subtract(subtotal, discount), shipping);
+
+        appendTotal("Subtotal", subtotal);
+        this.buffer.append(LINE_SEPARATOR);
+        if (discount != 0) {
+            appendTotal("Discount", -discount);
+            this.buffer.append(LINE_SEPARATOR);
+        }
+        appendTotal("Shipping", shipping);
+        this.buffer.append(LINE_SEPARATOR);
+        appendTotal("Amount", total);
+    }
+
+    private void appendShipmentLine(Product product, int quantity) {
+        if (product instanceof Shippable shippableProduct) {
+            double itemWeight = shippableProduct.getWeight() * quantity;
+            appendItemName(quantity, product.getName());
+            appendFixed(itemWeight * 1000, 0); // Convert kg to grams
+            this.buffer.append('g').append(LINE_SEPARATOR);
+        }
+    }
+
+    private void appendReceiptLine(Product product, int quantity) {
+        appendItemName(quantity, product.getName());
+        this.buffer.append(Money.roundToMajor(Money.multiply(product.getPriceMinor(), quantity)));
+        this.buffer.append(LINE_SEPARATOR);
+    }
+
+    private void appendItemName(int quantity, String name) {
+        this.buffer.append(quantity).append("x ");
+        appendPadded(name);
+        this.buffer.append(' ');
+    }
+
+    private void appendTotal(String label, long amountMinor) {
+        appendPadded(label);
+        this.buffer.append(' ');
+        this.buffer.append(Money.roundToMajor(amountMinor));
+    }
+
+    /**
+     * Equivalent of {@code %-12s}: left-aligned, padded but never truncated
+     */
+    private void appendPadded(String text) {
+        this.buffer.append(text);
+        for (int i = text.length(); i < NAME_WIDTH; i++) {
+            this.buffer.append(' ');
+        }
+    }
+
+    /**
+     * Equivalent of {@code %.0f} / {@code %.1f}: rounds half-up to the given number of decimals.
+     * Only values within a hair of a rounding tie take the exact (allocating) decimal path.
+     */
+    private void appendFixed(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FAST_VALUE) {
+            this.buffer.append(String.format("%." + decimals + "f", value));
+            return;
+        }
+
+        long scale = decimals == 0 ? 1 : 10;
+        boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+        double magnitude = Math.abs(value);
+        double shifted = magnitude * scale;
+        double fraction = shifted - Math.floor(shifted);
+        long scaled;
+        if (Math.abs(fraction - 0.5) <= Math.max(TIE_TOLERANCE, 8 * Math.ulp(shifted))) {
+            // Too close to a tie for binary arithmetic: round the decimal digits like Formatter does
+            scaled = new BigDecimal(Double.toString(magnitude)).setScale(decimals, RoundingMode.HALF_UP)
+                    .unscaledValue().longValue();
+        } else {
+            scaled = Math.round(shifted);
+        }
+        if (negative) {
+            this.buffer.append('-');
+        }
+        this.buffer.append(scaled / scale);
+        if (decimals > 0) {
+            this.buffer.append('.').append(scaled % scale);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures aggregate checkouts per second as inventory shards are added.
+ * <p>
+ * Run with {@code java ShardHarness [seconds] [threads] [maxShards]}. For 1, 2, 4...
+ * up to {@code maxShards} shards, one {@link InventoryNode} process is started per
+ * shard on this machine, every SKU is stocked on its shard, and {@code threads}
+ * checkout threads drive carts spanning several SKUs through
+ * {@link CheckoutService} with two-phase commit across the shards.
+ */
+public class ShardHarness {
+
+    private static final int SKUS = 1_000;
+    private static final int LINES_PER_CART = 4;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+        int maxShards = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        System.out.printf("%-8s %-10s %-12s %s%n", "Shards", "Threads", "Checkouts/s", "Rejected");
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            List<Process> nodes = new ArrayList<>();
+            try {
+                List<InetSocketAddress> addresses = new ArrayList<>();
+                for (int i = 0; i < shards; i++) {
+                    Process node = startNode();
+                    nodes.add(node);
+                    addresses.add(new InetSocketAddress("127.0.0.1", readPort(node)));
+                }
+                try (ShardedInventory inventory = new ShardedInventory(addresses)) {
+                    run(inventory, seconds, threads);
+                }
+            } finally {
+                for (Process node : nodes) {
+                    node.destroy();
+                    node.waitFor(5, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    private static void run(ShardedInventory inventory, int seconds, int threads) throws Exception {
+        // The shards own the stock; the catalog's only gates cart reservations, which checkout releases
+        Catalog catalog = new Catalog(SKUS);
+        for (int i = 0; i < SKUS; i++) {
+            String sku = "SKU-" + i;
+            catalog.addProduct(sku, new Product("Item " + i, Integer.MAX_VALUE / 2, 1.0 + i % 50));
+            inventory.restock(sku, Integer.MAX_VALUE / 2);
+        }
+
+        LongAdder completed = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    Cart cart = new Cart();
+                    for (int line = 0; line < LINES_PER_CART; line++) {
+                        cart.addItem(catalog.getProduct("SKU-" + random.nextInt(SKUS)), 1 + random.nextInt(3));
+                    }
+                    Customer customer = new Customer("Shopper", 1_000_000.0, cart);
+                    CheckoutService checkout = new CheckoutService(cart, customer, new ShippingService(cart.getItems()));
+                    checkout.setInventory(inventory);
+                    try {
+                        checkout.checkout(Writer.nullWriter());
+                        completed.increment();
+                    } catch (IllegalStateException e) {
+                        rejected.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+        System.out.printf("%-8d %-10d %-12.0f %d%n", inventory.getShards(), threads,
+                completed.sum() / (double) seconds, rejected.sum());
+    }
+
+    private static Process startNode() throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "InventoryNode")
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private static int readPort(Process node) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(node.getInputStream(), StandardCharsets.UTF_8));
+        String line = out.readLine();
+        if (line == null || !line.startsWith("Inventory node listening on ")) {
+            throw new IOException("Inventory node failed to start: " + line);
+        }
+        return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+    }
+}
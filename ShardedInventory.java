@@ -0,0 +1,396 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Client side of an inventory partitioned by SKU across {@link InventoryNode}s.
+ * <p>
+ * A SKU always lives on shard {@code floorMod(sku.hashCode(), shards)}. A cart is
+ * committed with two-phase commit: {@link #prepare(Cart)} sends each involved
+ * shard all of its lines in one message and reserves them there, and the
+ * returned {@link Transaction} then either commits or aborts on every one of
+ * those shards. If any shard cannot reserve its lines, the shards already
+ * prepared are aborted before {@code prepare} returns. Once a transaction is
+ * committed the decision is final: shards that cannot be reached are retried in
+ * the background, with backoff, until they acknowledge, and never aborted.
+ * Until every shard has acknowledged, the client renews the transaction's
+ * prepares well inside the nodes' prepare timeout, so a slow order log or a
+ * retry backoff never lets a node expire a sale that has been decided.
+ * Each shard has a pool of persistent connections, so concurrent checkouts
+ * never share a socket. Connecting and every reply are bounded by timeouts, so
+ * a hung shard fails the call as unreachable instead of blocking a checkout.
+ */
+public class ShardedInventory implements AutoCloseable {
+
+    private static final AtomicLong NEXT_CLIENT = new AtomicLong();
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    private static final int READ_TIMEOUT_MILLIS = 5_000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 30_000;
+
+    private final List<InetSocketAddress> nodes;
+    private final List<ConcurrentLinkedQueue<Connection>> pools = new ArrayList<>();
+    private final String clientId = ProcessHandle.current().pid() + "-" + NEXT_CLIENT.incrementAndGet();
+    private final AtomicLong nextTransaction = new AtomicLong();
+    private final AtomicInteger pendingCommits = new AtomicInteger();
+    private final AtomicLong lostCommits = new AtomicLong();
+    // Prepared transactions some shard has not acknowledged the outcome of yet
+    private final Set<Transaction> inFlight = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService commitRetries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "inventory-commit-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardedInventory(List<InetSocketAddress> nodes) {
+        this(nodes, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param renewPeriod how often unfinished prepares are renewed; must be well
+     *                    inside the nodes' prepare timeout
+     */
+    public ShardedInventory(List<InetSocketAddress> nodes, long renewPeriod, TimeUnit unit) {
+        if (renewPeriod <= 0 || unit == null) {
+            throw new IllegalArgumentException("Invalid renew period");
+        }
+        if (nodes == null || nodes.isEmpty()) {
+            throw new IllegalArgumentException("Invalid inventory nodes");
+        }
+        for (InetSocketAddress node : nodes) {
+            if (node == null) {
+                throw new IllegalArgumentException("Invalid inventory nodes");
+            }
+        }
+        this.nodes = List.copyOf(nodes);
+        for (int i = 0; i < this.nodes.size(); i++) {
+            this.pools.add(new ConcurrentLinkedQueue<>());
+        }
+        this.commitRetries.scheduleWithFixedDelay(this::renewInFlight, renewPeriod, renewPeriod, unit);
+    }
+
+    public int getShards() {
+        return this.nodes.size();
+    }
+
+    /**
+     * @return committed transactions still waiting for some shard to acknowledge
+     */
+    public int getPendingCommits() {
+        return this.pendingCommits.get();
+    }
+
+    /**
+     * @return shard commits refused because the shard no longer held the
+     * transaction, e.g. after it expired there
+     */
+    public long getLostCommits() {
+        return this.lostCommits.get();
+    }
+
+    public int shardOf(String sku) {
+        return Math.floorMod(sku.hashCode(), this.nodes.size());
+    }
+
+    /**
+     * Adds units of a SKU on its shard, creating the SKU there if needed
+     */
+    public boolean restock(String sku, int quantity) {
+        if (sku == null || quantity <= 0) {
+            return false;
+        }
+        return call(shardOf(sku), out -> {
+            out.writeByte(InventoryNode.RESTOCK);
+            out.writeUTF(sku);
+            out.writeInt(quantity);
+        }, DataInputStream::readBoolean);
+    }
+
+    public int getQuantity(String sku) {
+        if (sku == null) {
+            return 0;
+        }
+        return call(shardOf(sku), out -> {
+            out.writeByte(InventoryNode.STOCK);
+            out.writeUTF(sku);
+        }, DataInputStream::readInt);
+    }
+
+    /**
+     * Reserves every line of the cart on the shards owning its SKUs
+     *
+     * @return the prepared transaction, or null if some shard lacked the stock
+     * (nothing stays reserved in that case)
+     */
+    public Transaction prepare(Cart cart) {
+        if (cart == null) {
+            throw new IllegalArgumentException("Invalid cart");
+        }
+        int shards = this.nodes.size();
+        List<List<String>> skus = new ArrayList<>(shards);
+        List<List<Integer>> quantities = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            skus.add(new ArrayList<>());
+            quantities.add(new ArrayList<>());
+        }
+        cart.forEachItem((product, quantity) -> {
+            if (product.getSku() == null) {
+                throw new IllegalArgumentException("Product is not in the catalog: " + product.getName());
+            }
+            int shard = shardOf(product.getSku());
+            skus.get(shard).add(product.getSku());
+            quantities.get(shard).add(quantity);
+        });
+
+        Transaction transaction = new Transaction(this.clientId + "-" + this.nextTransaction.incrementAndGet());
+        for (int shard = 0; shard < shards; shard++) {
+            List<String> shardSkus = skus.get(shard);
+            if (shardSkus.isEmpty()) {
+                continue;
+            }
+            List<Integer> shardQuantities = quantities.get(shard);
+            boolean prepared;
+            try {
+                prepared = call(shard, out -> {
+                    out.writeByte(InventoryNode.PREPARE);
+                    out.writeUTF(transaction.id);
+                    out.writeInt(shardSkus.size());
+                    for (int i = 0; i < shardSkus.size(); i++) {
+                        out.writeUTF(shardSkus.get(i));
+                        out.writeInt(shardQuantities.get(i));
+                    }
+                }, DataInputStream::readBoolean);
+            } catch (UncheckedIOException e) {
+                // The shard may or may not have prepared; aborting it too is harmless
+                transaction.shards.add(shard);
+                try {
+                    transaction.abort();
+                } catch (UncheckedIOException abortFailure) {
+                    e.addSuppressed(abortFailure);
+                }
+                throw e;
+            }
+            if (!prepared) {
+                transaction.abort();
+                return null;
+            }
+            transaction.shards.add(shard);
+        }
+        transaction.outstanding = List.copyOf(transaction.shards);
+        this.inFlight.add(transaction);
+        return transaction;
+    }
+
+    private void renewInFlight() {
+        for (Transaction transaction : this.inFlight) {
+            transaction.renew();
+        }
+    }
+
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Reply<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Sends one request on a pooled connection to the shard and reads its reply.
+     * A connection that fails mid-call is closed rather than returned to the pool.
+     */
+    private <T> T call(int shard, Request request, Reply<T> reply) {
+        Connection connection = this.pools.get(shard).poll();
+        try {
+            if (connection == null) {
+                connection = new Connection(this.nodes.get(shard));
+            }
+            request.write(connection.out);
+            connection.out.flush();
+            T result = reply.read(connection.in);
+            this.pools.get(shard).add(connection);
+            return result;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw new UncheckedIOException("Inventory shard " + shard + " is unreachable", e);
+        }
+    }
+
+    /**
+     * Keeps retrying and renewing pending commits for a while before closing the
+     * connections
+     *
+     * @throws IllegalStateException if some shard still has not acknowledged a
+     * committed transaction; its prepare is no longer renewed and will expire
+     */
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+        while (this.pendingCommits.get() > 0 && System.nanoTime() - deadline < 0
+                && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        this.commitRetries.shutdownNow();
+        for (ConcurrentLinkedQueue<Connection> pool : this.pools) {
+            Connection connection;
+            while ((connection = pool.poll()) != null) {
+                connection.close();
+            }
+        }
+        int pending = this.pendingCommits.get();
+        if (pending > 0) {
+            List<String> ids = new ArrayList<>();
+            for (Transaction transaction : this.inFlight) {
+                ids.add(transaction.id);
+            }
+            throw new IllegalStateException(pending + " inventory commits still unacknowledged: " + ids);
+        }
+    }
+
+    /**
+     * A cart's lines reserved on their shards, waiting for the outcome of the checkout
+     */
+    public class Transaction {
+
+        private final String id;
+        private final List<Integer> shards = new ArrayList<>();
+        // Shards still to acknowledge the outcome; replaced, never mutated, so the renewer can read it
+        private volatile List<Integer> outstanding = List.of();
+
+        private Transaction(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return this.id;
+        }
+
+        /**
+         * Commits on every prepared shard. Shards that cannot be reached now are
+         * retried in the background until they acknowledge; this never throws
+         * once the local outcome has been decided.
+         */
+        public void commit() {
+            List<Integer> unreachable = send(InventoryNode.COMMIT, this.shards);
+            this.outstanding = unreachable;
+            if (unreachable.isEmpty()) {
+                inFlight.remove(this);
+            } else {
+                pendingCommits.incrementAndGet();
+                retryCommit(10);
+            }
+        }
+
+        private void retryCommit(long delayMillis) {
+            try {
+                commitRetries.schedule(() -> {
+                    List<Integer> stillUnreachable = send(InventoryNode.COMMIT, this.outstanding);
+                    this.outstanding = stillUnreachable;
+                    if (stillUnreachable.isEmpty()) {
+                        inFlight.remove(this);
+                        pendingCommits.decrementAndGet();
+                    } else {
+                        retryCommit(Math.min(delayMillis * 2, 5_000));
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closing; close() reports the commit as still pending
+            }
+        }
+
+        /**
+         * Restarts the prepare timeout on the shards that have not acknowledged yet
+         */
+        private void renew() {
+            for (int shard : this.outstanding) {
+                try {
+                    // A shard that lost the transaction is counted by the commit that follows
+                    call(shard, out -> {
+                        out.writeByte(InventoryNode.RENEW);
+                        out.writeUTF(this.id);
+                    }, DataInputStream::readBoolean);
+                } catch (UncheckedIOException e) {
+                    // Unreachable now; renewed on the next round
+                }
+            }
+        }
+
+        public void abort() {
+            inFlight.remove(this);
+            List<Integer> unreachable = send(InventoryNode.ABORT, this.shards);
+            if (!unreachable.isEmpty()) {
+                throw new UncheckedIOException(new IOException("Inventory shards " + unreachable + " are unreachable"));
+            }
+        }
+
+        /**
+         * @return the shards that could not be reached
+         */
+        private List<Integer> send(byte op, List<Integer> targets) {
+            List<Integer> unreachable = new ArrayList<>();
+            for (int shard : targets) {
+                try {
+                    boolean acknowledged = call(shard, out -> {
+                        out.writeByte(op);
+                        out.writeUTF(this.id);
+                    }, DataInputStream::readBoolean);
+                    if (!acknowledged && op == InventoryNode.COMMIT) {
+                        lostCommits.incrementAndGet();
+                    }
+                } catch (UncheckedIOException e) {
+                    // Commit and abort are safe to retry
+                    unreachable.add(shard);
+                }
+            }
+            return unreachable;
+        }
+    }
+
+    private static class Connection {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            this.socket = new Socket();
+            try {
+                this.socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                // A reply that times out surfaces as an IOException and the connection is dropped
+                this.socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            this.socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        }
+
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Already broken
+            }
+        }
+    }
+}
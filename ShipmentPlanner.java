@@ -0,0 +1,175 @@
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits an order's shippable items into parcels no heavier than a weight limit.
+ * <p>
+ * Items are packed first-fit-decreasing by unit weight, placing as many units
+ * of an item into a parcel as fit in one step. Shipping fees are charged per
+ * item, so minimising the number of parcels is what keeps shipping cheap.
+ * Orders with many shippable lines are split with fork/join: each half is
+ * packed in parallel and the halves' parcels are then merged wherever two
+ * partly filled parcels fit together. A unit heavier than the limit ships alone.
+ */
+public class ShipmentPlanner {
+
+    private static final int PARALLEL_THRESHOLD = 512;
+    private static final double EPSILON = 1e-9;
+
+    private final double maxParcelWeight;
+
+    public ShipmentPlanner(double maxParcelWeight) {
+        if (!(maxParcelWeight > 0) || Double.isInfinite(maxParcelWeight)) {
+            throw new IllegalArgumentException("Invalid parcel weight limit");
+        }
+        this.maxParcelWeight = maxParcelWeight;
+    }
+
+    public double getMaxParcelWeight() {
+        return this.maxParcelWeight;
+    }
+
+    public List<Parcel> plan(ShippingService shippingService) {
+        if (shippingService == null) {
+            throw new IllegalArgumentException("Invalid shipping service");
+        }
+        List<Shippable> items = shippingService.getShippableItems();
+        int[] quantities = new int[items.size()];
+        for (int i = 0; i < quantities.length; i++) {
+            quantities[i] = shippingService.getQuantity(items.get(i));
+        }
+
+        List<Parcel> parcels = items.size() > PARALLEL_THRESHOLD
+                ? ForkJoinPool.commonPool().invoke(new PackTask(items, quantities, 0, items.size()))
+                : pack(items, quantities, 0, items.size());
+        parcels.sort(Comparator.comparingDouble(Parcel::getWeight).reversed());
+        return Collections.unmodifiableList(parcels);
+    }
+
+    private List<Parcel> pack(List<Shippable> items, int[] quantities, int from, int to) {
+        List<Integer> order = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble((Integer i) -> items.get(i).getWeight()).reversed());
+
+        List<Parcel> parcels = new ArrayList<>();
+        for (int i : order) {
+            Shippable item = items.get(i);
+            double unitWeight = item.getWeight();
+            int remaining = quantities[i];
+
+            if (unitWeight > this.maxParcelWeight + EPSILON) {
+                for (; remaining > 0; remaining--) {
+                    Parcel oversized = new Parcel();
+                    oversized.add(item, 1);
+                    parcels.add(oversized);
+                }
+                continue;
+            }
+            for (Parcel parcel : parcels) {
+                if (remaining == 0) {
+                    break;
+                }
+                int fits = (int) Math.min(remaining, Math.floor((this.maxParcelWeight - parcel.weight + EPSILON) / unitWeight));
+                if (fits > 0) {
+                    parcel.add(item, fits);
+                    remaining -= fits;
+                }
+            }
+            int perParcel = (int) Math.min(Integer.MAX_VALUE, Math.floor((this.maxParcelWeight + EPSILON) / unitWeight));
+            while (remaining > 0) {
+                Parcel parcel = new Parcel();
+                int units = Math.min(remaining, perParcel);
+                parcel.add(item, units);
+                parcels.add(parcel);
+                remaining -= units;
+            }
+        }
+        return parcels;
+    }
+
+    /**
+     * Pours whole parcels from one half into the other's spare room, heaviest first
+     */
+    private List<Parcel> merge(List<Parcel> left, List<Parcel> right) {
+        List<Parcel> merged = new ArrayList<>(left.size() + right.size());
+        merged.addAll(left);
+        merged.addAll(right);
+        merged.sort(Comparator.comparingDouble(Parcel::getWeight).reversed());
+
+        List<Parcel> result = new ArrayList<>(merged.size());
+        for (Parcel parcel : merged) {
+            Parcel target = null;
+            for (Parcel candidate : result) {
+                if (candidate.weight + parcel.weight <= this.maxParcelWeight + EPSILON) {
+                    target = candidate;
+                    break;
+                }
+            }
+            if (target == null) {
+                result.add(parcel);
+            } else {
+                for (Map.Entry<Shippable, Integer> line : parcel.items.entrySet()) {
+                    target.add(line.getKey(), line.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    private class PackTask extends RecursiveTask<List<Parcel>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Shippable> items;
+        private final int[] quantities;
+        private final int from;
+        private final int to;
+
+        private PackTask(List<Shippable> items, int[] quantities, int from, int to) {
+            this.items = items;
+            this.quantities = quantities;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Parcel> compute() {
+            if (this.to - this.from <= PARALLEL_THRESHOLD) {
+                return pack(this.items, this.quantities, this.from, this.to);
+            }
+            int middle = (this.from + this.to) >>> 1;
+            PackTask left = new PackTask(this.items, this.quantities, this.from, middle);
+            left.fork();
+            List<Parcel> right = new PackTask(this.items, this.quantities, middle, this.to).compute();
+            return merge(left.join(), right);
+        }
+    }
+
+    public static class Parcel {
+
+        private final Map<Shippable, Integer> items = new LinkedHashMap<>();
+        private double weight;
+
+        private void add(Shippable item, int quantity) {
+            this.items.merge(item, quantity, Integer::sum);
+            this.weight += item.getWeight() * quantity;
+        }
+
+        public double getWeight() {
+            return this.weight;
+        }
+
+        public Map<Shippable, Integer> getItems() {
+            return Collections.unmodifiableMap(this.items);
+        }
+    }
+}
@@ -8,4 +8,6 @@ public interface Shippable {
     double getWeight();
 
     double getShippingFees();
+
+    long getShippingFeesMinor();
 }
@@ -2,7 +2,7 @@
 public class ShippableProduct extends Product implements Shippable {
 
     private double weight;
-    private double shippingFees;
+    private long shippingFeesMinor;
 
     public ShippableProduct(String name, int quantity, double price, double weight, double shippingFees) {
         super(name, quantity, price);
@@ -25,8 +25,8 @@ public class ShippableProduct extends Product implements Shippable {
 
     @Override
     public boolean setShippingFees(double shippingFees) {
-        if (shippingFees > 0) {
-            this.shippingFees = shippingFees;
+        if (Money.isPositiveAmount(shippingFees)) {
+            this.shippingFeesMinor = Money.ofMajor(shippingFees);
             return true;
         }
         return false;
@@ -34,7 +34,12 @@ public class ShippableProduct extends Product implements Shippable {
 
     @Override
     public double getShippingFees() {
-        return this.shippingFees;
+        return Money.toMajor(this.shippingFeesMinor);
+    }
+
+    @Override
+    public long getShippingFeesMinor() {
+        return this.shippingFeesMinor;
     }
 
     @Override
@@ -5,52 +5,154 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-public class ShippingService {
+/**
+ * Shipping totals for a cart.
+ * <p>
+ * When built from a {@link Cart} the service listens to it and adjusts weight
+ * and fees on every add or remove, so quotes are always consistent with
+ * {@link Cart#getItems()} without re-scanning the cart, until {@link #close()}
+ * detaches it. Each item keeps the fees and weight it was added with, so a
+ * removal takes back exactly what was added even if the product's fee or
+ * weight changed in between. When built from a {@link StoreCart} it reads the
+ * cart's own running totals; when built from an item map it computes the
+ * totals once, as a snapshot.
+ */
+public class ShippingService implements CartListener, AutoCloseable {
 
-    private Map<Product, Integer> items = new LinkedHashMap<>();
-    private List<Shippable> shippableItems = new ArrayList<>();
-    private double totalShippingFees;
+    private final Map<Shippable, Line> shippableItems = new LinkedHashMap<>();
+    private long totalShippingFeesMinor;
     private double totalWeight;
+    private Cart cart;
+    private StoreCart storeCart;
+
+    public ShippingService(Cart cart) {
+        if (cart == null) {
+            throw new IllegalArgumentException("Invalid cart");
+        }
+        long start = System.nanoTime();
+        cart.forEachItem(this::itemAdded);
+        cart.addListener(this);
+        this.cart = cart;
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.SHIPPING_CALCULATION, start);
+    }
 
     public ShippingService(Map<Product, Integer> items) {
-        if (!setItems(items)) {
+        if (items == null || items.isEmpty()) {
             throw new IllegalArgumentException("Invalid items");
         }
-        this.totalShippingFees = 0.0;
-        this.totalWeight = 0.0;
-        calculateShippingFees();
+        long start = System.nanoTime();
+        calculateShippingFees(items);
+        CheckoutMetrics.global().recordSince(CheckoutMetrics.Stage.SHIPPING_CALCULATION, start);
+    }
+
+    /**
+     * Totals for a cart of store handles, read from the cart's running totals
+     * each time they are asked for. Handle lines have no {@link Shippable}
+     * object, so they are not listed by {@link #getShippableItems()} and cannot
+     * be planned into parcels.
+     */
+    public ShippingService(StoreCart cart) {
+        if (cart == null) {
+            throw new IllegalArgumentException("Invalid cart");
+        }
+        this.storeCart = cart;
     }
 
-    private void calculateShippingFees() {
+    private void calculateShippingFees(Map<Product, Integer> items) {
         for (Map.Entry<Product, Integer> entry : items.entrySet()) {
-            Product product = entry.getKey();
-            Integer quantity = entry.getValue();
+            itemAdded(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void itemAdded(Product product, int quantity) {
+        if (product instanceof Shippable shippableProduct) {
+            long fees = Money.multiply(shippableProduct.getShippingFeesMinor(), quantity);
+            double weight = shippableProduct.getWeight() * quantity;
+            Line line = this.shippableItems.computeIfAbsent(shippableProduct, item -> new Line());
+            line.quantity += quantity;
+            line.feesMinor = Money.add(line.feesMinor, fees);
+            line.weight += weight;
+            totalShippingFeesMinor = Money.add(totalShippingFeesMinor, fees);
+            totalWeight += weight;
+        }
+    }
 
-            if (product instanceof Shippable shippableProduct) {
-                this.shippableItems.add(shippableProduct);
-                totalShippingFees += shippableProduct.getShippingFees() * quantity;
-                totalWeight += shippableProduct.getWeight() * quantity;
+    @Override
+    public void itemRemoved(Product product, int quantity) {
+        if (product instanceof Shippable shippableProduct) {
+            Line line = this.shippableItems.get(shippableProduct);
+            if (line == null) {
+                return;
+            }
+            long fees;
+            double weight;
+            if (quantity >= line.quantity) {
+                fees = line.feesMinor;
+                weight = line.weight;
+                this.shippableItems.remove(shippableProduct);
+            } else {
+                // Units added at different fees are taken back at their average
+                fees = line.feesMinor / line.quantity * quantity
+                        + line.feesMinor % line.quantity * quantity / line.quantity;
+                weight = line.weight / line.quantity * quantity;
+                line.quantity -= quantity;
+                line.feesMinor = Money.subtract(line.feesMinor, fees);
+                line.weight -= weight;
+            }
+            if (this.shippableItems.isEmpty()) {
+                // Avoid leaving floating-point weight residue behind once nothing ships
+                totalShippingFeesMinor = 0;
+                totalWeight = 0.0;
+            } else {
+                totalShippingFeesMinor = Money.subtract(totalShippingFeesMinor, fees);
+                totalWeight -= weight;
             }
         }
     }
 
-    private boolean setItems(Map<Product, Integer> items) {
-        if (!items.isEmpty()) {
-            this.items = items;
-            return true;
+    /**
+     * Stops following the cart; the totals stay as they are
+     */
+    @Override
+    public void close() {
+        if (this.cart != null) {
+            this.cart.removeListener(this);
+            this.cart = null;
         }
-        return false;
     }
 
     public double getTotalShippingFees() {
-        return totalShippingFees;
+        return Money.toMajor(getTotalShippingFeesMinor());
+    }
+
+    public long getTotalShippingFeesMinor() {
+        return this.storeCart != null ? this.storeCart.getTotalShippingFeesMinor() : totalShippingFeesMinor;
     }
 
     public double getTotalWeight() {
-        return totalWeight;
+        return this.storeCart != null ? this.storeCart.getTotalWeight() : totalWeight;
+    }
+
+    /**
+     * @return units of the item to ship, or 0 if it is not in the order
+     */
+    public int getQuantity(Shippable item) {
+        Line line = this.shippableItems.get(item);
+        return line == null ? 0 : line.quantity;
     }
 
     public List<Shippable> getShippableItems() {
-        return Collections.unmodifiableList(this.shippableItems);
+        return Collections.unmodifiableList(new ArrayList<>(this.shippableItems.keySet()));
+    }
+
+    /**
+     * Units of one item and the fees and weight they were added with
+     */
+    private static class Line {
+
+        private int quantity;
+        private long feesMinor;
+        private double weight;
     }
 }
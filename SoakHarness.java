@@ -0,0 +1,486 @@
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Seeded soak test of the checkout path, built from the shapes of the scenarios in {@link Main}.
+ * <p>
+ * Run with {@code java SoakHarness [seed] [seconds] [threads] [skus] [stock-per-sku]}.
+ * A catalog of every product type is generated from the seed, then each thread
+ * draws a weighted mix of scenarios (mixed, digital-only, physical-only,
+ * expirable, complex and large orders, insufficient, zero and exact balances,
+ * empty carts and shared corporate wallets) from its own seeded random stream,
+ * so a seed always replays the same orders on each thread. Popular SKUs are
+ * drawn more often than the rest, so hot products sell out and carts contend
+ * on them as they would in production.
+ * <p>
+ * Stock defaults to enough for completed checkouts to dominate a default run,
+ * with only the hottest SKUs selling out; scarce stock turns most orders into
+ * sell-outs and measures little but the rejection path.
+ * <p>
+ * Every order's outcome is checked against what its scenario expects. At the
+ * end, every SKU must account for its stock as available, reserved and sold
+ * with nothing left reserved, and every wallet must hold exactly its opening
+ * balance less what was charged to it, never less than zero. The report gives
+ * throughput, checkout latency percentiles, the allocation rate of the worker
+ * threads and any invariant violations, and what the run added to the
+ * {@link CheckoutMetrics#global() global metrics}, which are only this run's
+ * own while nothing else checks out in the process.
+ */
+public class SoakHarness {
+
+    public enum Scenario {
+        MIXED(20), DIGITAL_ONLY(10), PHYSICAL_ONLY(10), EXPIRABLE(8), COMPLEX(8), LARGE_ORDER(6),
+        INSUFFICIENT_BALANCE(8), ZERO_BALANCE(4), EXACT_BALANCE(8), EMPTY_CART(4), SHARED_WALLET(14);
+
+        private final int weight;
+
+        Scenario(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int KINDS = 4;
+    private static final int SHARED_WALLETS = 4;
+    private static final long SHARED_WALLET_BALANCE = Money.ofMajor(1_000_000.0);
+    private static final int MAX_VIOLATIONS_KEPT = 10;
+
+    private final long seed;
+    private final int threads;
+    private final long durationNanos;
+    private final int skus;
+    private final int stockPerSku;
+
+    /**
+     * @param skus        catalog size, at least one SKU of each product type
+     * @param stockPerSku units each SKU starts with
+     */
+    public SoakHarness(long seed, int threads, long duration, TimeUnit unit, int skus, int stockPerSku) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid thread count");
+        }
+        if (duration <= 0 || unit == null) {
+            throw new IllegalArgumentException("Invalid duration");
+        }
+        if (skus < KINDS) {
+            throw new IllegalArgumentException("Invalid catalog size");
+        }
+        if (stockPerSku <= 0) {
+            throw new IllegalArgumentException("Invalid stock");
+        }
+        this.seed = seed;
+        this.threads = threads;
+        this.durationNanos = unit.toNanos(duration);
+        this.skus = skus;
+        this.stockPerSku = stockPerSku;
+    }
+
+    public Result run() throws InterruptedException {
+        Product[] products = buildCatalog();
+        Wallet[] sharedWallets = new Wallet[SHARED_WALLETS];
+        LongAdder[] sharedCharges = new LongAdder[SHARED_WALLETS];
+        for (int i = 0; i < SHARED_WALLETS; i++) {
+            sharedWallets[i] = new Wallet(SHARED_WALLET_BALANCE);
+            sharedCharges[i] = new LongAdder();
+        }
+        Result result = new Result(this.seed, this.threads);
+        CheckoutMetrics metrics = CheckoutMetrics.global();
+        long completedBefore = metrics.getCompletedCheckouts();
+        long[] rejectionsBefore = new long[CheckoutMetrics.Rejection.values().length];
+        for (CheckoutMetrics.Rejection rejection : CheckoutMetrics.Rejection.values()) {
+            rejectionsBefore[rejection.ordinal()] = metrics.getRejections(rejection);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        List<Future<Worker>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        long end = start + this.durationNanos;
+        SplittableRandom seeds = new SplittableRandom(this.seed);
+        for (int t = 0; t < this.threads; t++) {
+            Worker worker = new Worker(seeds.split(), products, sharedWallets, sharedCharges, result);
+            futures.add(executor.submit(() -> {
+                worker.run(end);
+                return worker;
+            }));
+        }
+        long[] sold = new long[products.length];
+        try {
+            for (Future<Worker> future : futures) {
+                Worker worker = future.get();
+                for (int i = 0; i < sold.length; i++) {
+                    sold[i] += worker.sold[i];
+                }
+                result.allocatedBytes += worker.allocatedBytes;
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Soak worker failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.metricsCompleted = metrics.getCompletedCheckouts() - completedBefore;
+        for (CheckoutMetrics.Rejection rejection : CheckoutMetrics.Rejection.values()) {
+            result.metricsRejections[rejection.ordinal()] = metrics.getRejections(rejection)
+                    - rejectionsBefore[rejection.ordinal()];
+        }
+
+        for (int i = 0; i < products.length; i++) {
+            Product product = products[i];
+            if (product.getReservedQuantity() != 0) {
+                result.violation(product.getName() + " still has " + product.getReservedQuantity() + " units reserved");
+            }
+            long accounted = product.getQuantity() + product.getReservedQuantity() + sold[i];
+            if (accounted != this.stockPerSku) {
+                result.violation(product.getName() + " accounts for " + accounted + " of " + this.stockPerSku + " units");
+            }
+        }
+        for (int i = 0; i < SHARED_WALLETS; i++) {
+            long balance = sharedWallets[i].getBalanceMinor();
+            if (balance < 0 || balance != SHARED_WALLET_BALANCE - sharedCharges[i].sum()) {
+                result.violation("Shared wallet " + i + " holds " + balance + " after charges of " + sharedCharges[i].sum());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Every product type in turn, with prices and weights drawn from the seed
+     */
+    private Product[] buildCatalog() {
+        SplittableRandom random = new SplittableRandom(this.seed);
+        LocalDate expiry = ExpiryClock.today().plusDays(30);
+        Product[] products = new Product[this.skus];
+        for (int i = 0; i < this.skus; i++) {
+            String name = "Soak item " + i;
+            double price = (100 + random.nextInt(50_000)) / 100.0;
+            double weight = (1 + random.nextInt(5_000)) / 1000.0;
+            double shippingFees = (100 + random.nextInt(2_000)) / 100.0;
+            products[i] = switch (i % KINDS) {
+                case 0 -> new Product(name, this.stockPerSku, price);
+                case 1 -> new ShippableProduct(name, this.stockPerSku, price, weight, shippingFees);
+                case 2 -> new ExpirableProduct(name, this.stockPerSku, price, expiry);
+                default -> new ExpirableShippableProduct(name, this.stockPerSku, price, expiry, weight, shippingFees);
+            };
+        }
+        return products;
+    }
+
+    /**
+     * One checkout thread, with its own random stream and sold-unit counts
+     */
+    private class Worker {
+
+        private final SplittableRandom random;
+        private final Product[] products;
+        private final Wallet[] sharedWallets;
+        private final LongAdder[] sharedCharges;
+        private final Result result;
+        private final long[] sold;
+        private final int[] lineProducts = new int[64];
+        private final int[] lineQuantities = new int[64];
+        private final int totalWeight;
+        private long allocatedBytes;
+
+        private Worker(SplittableRandom random, Product[] products, Wallet[] sharedWallets,
+                       LongAdder[] sharedCharges, Result result) {
+            this.random = random;
+            this.products = products;
+            this.sharedWallets = sharedWallets;
+            this.sharedCharges = sharedCharges;
+            this.result = result;
+            this.sold = new long[products.length];
+            int weights = 0;
+            for (Scenario scenario : Scenario.values()) {
+                weights += scenario.weight;
+            }
+            this.totalWeight = weights;
+        }
+
+        private void run(long end) {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocations = threadBean instanceof com.sun.management.ThreadMXBean bean
+                    && bean.isThreadAllocatedMemorySupported() ? bean : null;
+            long allocatedBefore = allocations == null ? 0 : allocations.getCurrentThreadAllocatedBytes();
+            while (System.nanoTime() < end) {
+                runOrder(nextScenario());
+            }
+            if (allocations != null) {
+                this.allocatedBytes = allocations.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }
+        }
+
+        private Scenario nextScenario() {
+            int pick = this.random.nextInt(this.totalWeight);
+            for (Scenario scenario : Scenario.values()) {
+                pick -= scenario.weight;
+                if (pick < 0) {
+                    return scenario;
+                }
+            }
+            throw new IllegalStateException("Unreachable");
+        }
+
+        private void runOrder(Scenario scenario) {
+            Cart cart = new Cart();
+            int lines = 0;
+            switch (scenario) {
+                case MIXED, INSUFFICIENT_BALANCE, ZERO_BALANCE, EXACT_BALANCE, SHARED_WALLET -> {
+                    for (int kind = 0; kind < KINDS; kind++) {
+                        lines = addLine(cart, lines, kind, 1 + this.random.nextInt(3));
+                    }
+                }
+                case DIGITAL_ONLY -> lines = addLines(cart, lines, 0, 1 + this.random.nextInt(3), 3);
+                case PHYSICAL_ONLY -> lines = addLines(cart, lines, 1, 1 + this.random.nextInt(4), 2);
+                case EXPIRABLE -> lines = addLines(cart, lines, 2, 1 + this.random.nextInt(3), 3);
+                case COMPLEX -> lines = addLines(cart, lines, 3, 1 + this.random.nextInt(3), 2);
+                case LARGE_ORDER -> {
+                    int count = 20 + this.random.nextInt(31);
+                    for (int i = 0; i < count; i++) {
+                        lines = addLine(cart, lines, this.random.nextInt(KINDS), 1 + this.random.nextInt(10));
+                    }
+                }
+                case EMPTY_CART -> {
+                }
+            }
+
+            long due = 0;
+            ShippingService shipping = null;
+            if (!cart.isEmpty()) {
+                shipping = new ShippingService(cart);
+                due = Money.add(cart.getTotalPriceMinor(), shipping.getTotalShippingFeesMinor());
+            }
+            int sharedIndex = this.random.nextInt(SHARED_WALLETS);
+            Wallet wallet = switch (scenario) {
+                case SHARED_WALLET -> this.sharedWallets[sharedIndex];
+                case INSUFFICIENT_BALANCE -> new Wallet(Math.max(0, due - 1));
+                case ZERO_BALANCE -> new Wallet(0);
+                case EXACT_BALANCE -> new Wallet(due);
+                default -> new Wallet(Money.add(due, this.random.nextInt(100_000)));
+            };
+            long opening = wallet.getBalanceMinor();
+            boolean empty = cart.isEmpty();
+            boolean expectSuccess = switch (scenario) {
+                case INSUFFICIENT_BALANCE, ZERO_BALANCE, EMPTY_CART -> false;
+                default -> !empty;
+            };
+
+            long start = System.nanoTime();
+            boolean completed = false;
+            try {
+                Customer customer = new Customer("Soak shopper", wallet);
+                CheckoutService checkout = new CheckoutService(cart, customer,
+                        shipping != null ? shipping : new ShippingService(cart));
+                checkout.checkout(Writer.nullWriter());
+                completed = true;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // Rejected; judged against the scenario below
+            }
+            this.result.latency.recordSince(start);
+            this.result.attempts.increment();
+
+            if (completed) {
+                this.result.completed.increment();
+                for (int i = 0; i < lines; i++) {
+                    this.sold[this.lineProducts[i]] += this.lineQuantities[i];
+                }
+                if (scenario == Scenario.SHARED_WALLET) {
+                    this.sharedCharges[sharedIndex].add(due);
+                } else if (wallet.getBalanceMinor() != opening - due || wallet.getBalanceMinor() < 0) {
+                    this.result.violation(scenario + " left " + wallet.getBalanceMinor() + " of " + opening
+                            + " after charging " + due);
+                }
+                if (!expectSuccess) {
+                    this.result.violation(scenario + " checkout should have been rejected");
+                }
+                return;
+            }
+
+            // Give the reserved stock back, as an abandoned cart would
+            for (int i = 0; i < lines; i++) {
+                cart.removeItem(this.products[this.lineProducts[i]], this.lineQuantities[i]);
+            }
+            if (wallet.getBalanceMinor() != opening && scenario != Scenario.SHARED_WALLET) {
+                this.result.violation(scenario + " rejection changed the balance from " + opening);
+            }
+            if (expectSuccess && scenario != Scenario.SHARED_WALLET) {
+                this.result.violation(scenario + " checkout was rejected");
+            } else if (empty && scenario != Scenario.EMPTY_CART) {
+                this.result.stockOuts.increment();
+            } else {
+                this.result.expectedRejections.increment();
+            }
+        }
+
+        private int addLines(Cart cart, int lines, int kind, int count, int maxQuantity) {
+            for (int i = 0; i < count; i++) {
+                lines = addLine(cart, lines, kind, 1 + this.random.nextInt(maxQuantity));
+            }
+            return lines;
+        }
+
+        /**
+         * Adds a SKU of the given kind, favouring the low, "popular" SKUs
+         *
+         * @return the number of lines recorded; refused items are not recorded
+         */
+        private int addLine(Cart cart, int lines, int kind, int quantity) {
+            int perKind = (skus - kind + KINDS - 1) / KINDS;
+            double skew = this.random.nextDouble();
+            int index = (int) (skew * skew * perKind) * KINDS + kind;
+            if (lines == this.lineProducts.length || !cart.addItem(this.products[index], quantity)) {
+                return lines;
+            }
+            this.lineProducts[lines] = index;
+            this.lineQuantities[lines] = quantity;
+            return lines + 1;
+        }
+    }
+
+    /**
+     * Counts, latencies and invariant violations of one soak run
+     */
+    public static class Result {
+
+        private final long seed;
+        private final int threads;
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder expectedRejections = new LongAdder();
+        private final LongAdder stockOuts = new LongAdder();
+        private final LongAdder violations = new LongAdder();
+        private final List<String> violationSamples = Collections.synchronizedList(new ArrayList<>());
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long allocatedBytes;
+        private long elapsedNanos;
+        private long metricsCompleted;
+        private final long[] metricsRejections = new long[CheckoutMetrics.Rejection.values().length];
+
+        private Result(long seed, int threads) {
+            this.seed = seed;
+            this.threads = threads;
+        }
+
+        private void violation(String message) {
+            this.violations.increment();
+            if (this.violationSamples.size() < MAX_VIOLATIONS_KEPT) {
+                this.violationSamples.add(message);
+            }
+        }
+
+        public long getAttempts() {
+            return this.attempts.sum();
+        }
+
+        public long getCompleted() {
+            return this.completed.sum();
+        }
+
+        public long getExpectedRejections() {
+            return this.expectedRejections.sum();
+        }
+
+        /**
+         * @return orders that ended up with an empty cart because their SKUs had sold out
+         */
+        public long getStockOuts() {
+            return this.stockOuts.sum();
+        }
+
+        public long getViolations() {
+            return this.violations.sum();
+        }
+
+        /**
+         * @return the first few violations found, for diagnosis
+         */
+        public List<String> getViolationSamples() {
+            return List.copyOf(this.violationSamples);
+        }
+
+        public LatencyHistogram getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * @return completed checkouts the global metrics recorded during the run
+         */
+        public long getMetricsCompleted() {
+            return this.metricsCompleted;
+        }
+
+        /**
+         * @return rejections of the given kind the global metrics recorded during the run
+         */
+        public long getMetricsRejections(CheckoutMetrics.Rejection rejection) {
+            return this.metricsRejections[rejection.ordinal()];
+        }
+
+        public double getCheckoutsPerSecond() {
+            return getCompleted() / (this.elapsedNanos / 1e9);
+        }
+
+        /**
+         * @return bytes allocated per second across worker threads, or 0 if the JVM cannot tell
+         */
+        public double getAllocationRate() {
+            return this.allocatedBytes / (this.elapsedNanos / 1e9);
+        }
+
+        public String report() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "seed=%d threads=%d seconds=%.1f%n",
+                    this.seed, this.threads, this.elapsedNanos / 1e9));
+            report.append(String.format(Locale.ROOT,
+                    "orders=%d completed=%d rejected=%d stock_outs=%d checkouts/s=%.0f%n",
+                    getAttempts(), getCompleted(), getExpectedRejections(), getStockOuts(), getCheckoutsPerSecond()));
+            report.append(String.format(Locale.ROOT,
+                    "latency p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                    this.latency.getPercentileNanos(50) / 1000.0,
+                    this.latency.getPercentileNanos(99) / 1000.0,
+                    this.latency.getPercentileNanos(99.9) / 1000.0,
+                    this.latency.getMaxNanos() / 1000.0));
+            long attempts = Math.max(1, getAttempts());
+            report.append(String.format(Locale.ROOT, "allocation %.1f MB/s, %d bytes/order%n",
+                    getAllocationRate() / 1e6, this.allocatedBytes / attempts));
+            report.append("metrics completed=").append(this.metricsCompleted);
+            for (CheckoutMetrics.Rejection rejection : CheckoutMetrics.Rejection.values()) {
+                if (this.metricsRejections[rejection.ordinal()] > 0) {
+                    report.append(' ').append(rejection.name().toLowerCase(Locale.ROOT)).append('=')
+                            .append(this.metricsRejections[rejection.ordinal()]);
+                }
+            }
+            report.append('\n');
+            report.append("violations=").append(getViolations()).append('\n');
+            for (String violation : getViolationSamples()) {
+                report.append("  ").append(violation).append('\n');
+            }
+            return report.toString();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int skus = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+        int stock = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+
+        Result result = new SoakHarness(seed, threads, seconds, TimeUnit.SECONDS, skus, stock).run();
+        System.out.print(result.report());
+        if (result.getViolations() > 0) {
+            System.exit(1);
+        }
+    }
+}
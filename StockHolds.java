@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Issues time-limited {@link StockLease}s and returns expired ones to stock.
+ * <p>
+ * Leases are filed in a hashed timing wheel: one lock-free queue per tick,
+ * with enough slots to span the whole hold timeout, so every lease in a slot
+ * falls due on that slot's tick. A background reaper advances the wheel once
+ * per tick and drains only the slots that came due, which makes reclaiming
+ * cost O(expired) no matter how many holds are open; filing a lease is a single
+ * lock-free enqueue, so reaping never blocks {@link Cart#addItem(Product, int)}.
+ * A finished lease is dropped when its slot comes up, and a renewed one stays
+ * filed once and is moved to its new deadline's slot when its old one comes up.
+ */
+public class StockHolds implements AutoCloseable {
+
+    private final long timeoutNanos;
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<StockLease>[] wheel;
+    private final LongAdder expiredHolds = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+    // Only touched by the reaper, under this object's monitor
+    private long nextTick = 1;
+
+    @SuppressWarnings("unchecked")
+    public StockHolds(long timeout, long tick, TimeUnit unit) {
+        if (unit == null || tick <= 0 || timeout < tick) {
+            throw new IllegalArgumentException("Invalid hold timeout");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.tickNanos = unit.toNanos(tick);
+        int slots = (int) Math.min(Integer.MAX_VALUE - 2, (this.timeoutNanos + this.tickNanos - 1) / this.tickNanos) + 2;
+        this.wheel = (ConcurrentLinkedQueue<StockLease>[]) new ConcurrentLinkedQueue<?>[slots];
+        for (int i = 0; i < slots; i++) {
+            this.wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stock-hold-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::reapExpired, tick, tick, unit);
+    }
+
+    /**
+     * Starts a hold on units the caller has already reserved on the product
+     */
+    StockLease hold(Product product, int quantity) {
+        StockLease lease = new StockLease(this, product, quantity, nextDeadline());
+        schedule(lease);
+        return lease;
+    }
+
+    long nextDeadline() {
+        return System.nanoTime() + this.timeoutNanos;
+    }
+
+    void schedule(StockLease lease) {
+        long tick = (lease.getDeadline() - this.origin + this.tickNanos - 1) / this.tickNanos;
+        this.wheel[(int) (tick % this.wheel.length)].add(lease);
+    }
+
+    /**
+     * Advances the wheel to the current time, expiring every lease that came due
+     *
+     * @return number of leases whose units went back to stock
+     */
+    public synchronized int reapExpired() {
+        long now = System.nanoTime();
+        int expired = 0;
+        while (this.origin + this.nextTick * this.tickNanos <= now) {
+            ConcurrentLinkedQueue<StockLease> slot = this.wheel[(int) (this.nextTick % this.wheel.length)];
+            ConcurrentLinkedQueue<StockLease> nextSlot = this.wheel[(int) ((this.nextTick + 1) % this.wheel.length)];
+            List<StockLease> notDue = null;
+            StockLease lease;
+            while ((lease = slot.poll()) != null) {
+                int outcome = lease.expire(now);
+                if (outcome > 0) {
+                    expired++;
+                } else if (outcome == -1) {
+                    // Being checked out or changed right now; look again next tick
+                    nextSlot.add(lease);
+                } else if (outcome == -2) {
+                    if (notDue == null) {
+                        notDue = new ArrayList<>();
+                    }
+                    notDue.add(lease);
+                }
+            }
+            if (notDue != null) {
+                notDue.forEach(this::schedule);
+            }
+            this.nextTick++;
+        }
+        this.expiredHolds.add(expired);
+        return expired;
+    }
+
+    public long getTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.timeoutNanos);
+    }
+
+    /**
+     * @return total leases expired since the holds were created
+     */
+    public long getExpiredHolds() {
+        return this.expiredHolds.sum();
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
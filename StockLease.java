@@ -0,0 +1,127 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A time-limited hold on units of a product reserved by one cart line.
+ * <p>
+ * The lease is either {@code ACTIVE} (the reaper may expire it), {@code BUSY}
+ * (its cart is changing it or checking it out, so the reaper leaves it alone),
+ * or finished for good: {@code EXPIRED} by the reaper, which returns its units
+ * to stock, or {@code DONE} once its cart sold or released the units itself.
+ * The state word also carries a version bumped on every change, so the reaper
+ * can never expire a lease on the strength of a deadline that was since renewed.
+ */
+class StockLease {
+
+    private static final long ACTIVE = 0;
+    private static final long BUSY = 1;
+    private static final long EXPIRED = 2;
+    private static final long DONE = 3;
+    private static final long STATE_MASK = 3;
+    private static final long VERSION = 4;
+
+    private final StockHolds owner;
+    private final Product product;
+    private final AtomicLong state = new AtomicLong(ACTIVE);
+    // Written by the cart only while BUSY, published by the following state change
+    private int quantity;
+    private long deadline;
+
+    StockLease(StockHolds owner, Product product, int quantity, long deadline) {
+        this.owner = owner;
+        this.product = product;
+        this.quantity = quantity;
+        this.deadline = deadline;
+    }
+
+    Product getProduct() {
+        return this.product;
+    }
+
+    int getQuantity() {
+        return this.quantity;
+    }
+
+    long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Takes the lease away from the reaper
+     *
+     * @return false if the lease already expired or finished
+     */
+    boolean acquire() {
+        while (true) {
+            long current = this.state.get();
+            if ((current & STATE_MASK) != ACTIVE) {
+                return false;
+            }
+            if (this.state.compareAndSet(current, next(current, BUSY))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hands an acquired lease back to the reaper unchanged
+     */
+    void restore() {
+        this.state.set(next(this.state.get(), ACTIVE));
+    }
+
+    /**
+     * Adds units to an acquired lease and restarts its timeout. The lease stays
+     * in its wheel slot; the reaper files it under the new deadline once that
+     * slot comes up, so it is never queued twice.
+     */
+    void extend(int units) {
+        this.quantity += units;
+        this.deadline = this.owner.nextDeadline();
+        this.state.set(next(this.state.get(), ACTIVE));
+    }
+
+    /**
+     * Takes units the cart has already returned to stock off an acquired lease
+     */
+    void shrink(int units) {
+        this.quantity -= units;
+        this.state.set(next(this.state.get(), ACTIVE));
+    }
+
+    /**
+     * Ends an acquired lease; its units are sold or released by the cart, never by the reaper
+     */
+    void finish() {
+        this.state.set(next(this.state.get(), DONE));
+    }
+
+    /**
+     * Called by the reaper once the lease's wheel slot comes due
+     *
+     * @return 1 if the lease expired and its units went back to stock, -1 if it is busy
+     * and must be checked again on the next tick, -2 if it is not due yet, 0 if it is finished
+     */
+    int expire(long now) {
+        while (true) {
+            long current = this.state.get();
+            long state = current & STATE_MASK;
+            if (state == BUSY) {
+                return -1;
+            }
+            if (state != ACTIVE) {
+                return 0;
+            }
+            if (this.deadline > now) {
+                return -2;
+            }
+            if (this.state.compareAndSet(current, next(current, EXPIRED))) {
+                this.product.releaseReservation(this.quantity);
+                return 1;
+            }
+        }
+    }
+
+    private static long next(long current, long state) {
+        return ((current & ~STATE_MASK) + VERSION) | state;
+    }
+}
@@ -0,0 +1,109 @@
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free stock counter backing a {@link Product}.
+ * <p>
+ * Units move from {@code available} to {@code reserved} when a cart reserves
+ * them, and leave {@code reserved} either by being committed (sold) or released
+ * (returned to {@code available}). Every transition is a compare-and-set loop,
+ * so concurrent carts never share a monitor and can never oversell.
+ */
+public class StockLevel {
+
+    private final AtomicInteger available;
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    public StockLevel(int available) {
+        if (available < 0) {
+            throw new IllegalArgumentException("Invalid quantity");
+        }
+        this.available = new AtomicInteger(available);
+    }
+
+    public int getAvailable() {
+        return this.available.get();
+    }
+
+    public int getReserved() {
+        return this.reserved.get();
+    }
+
+    /**
+     * Moves units from available stock into the reserved pool
+     *
+     * @return true if enough stock was available
+     */
+    public boolean reserve(int quantity) {
+        if (quantity <= 0 || !tryDecrement(this.available, quantity)) {
+            return false;
+        }
+        this.reserved.addAndGet(quantity);
+        return true;
+    }
+
+    /**
+     * Permanently removes previously reserved units (the sale is final)
+     *
+     * @return true if that many units were reserved
+     */
+    public boolean commit(int quantity) {
+        return quantity > 0 && tryDecrement(this.reserved, quantity);
+    }
+
+    /**
+     * Undoes a {@link #commit(int)}, putting the units back into the reserved pool
+     */
+    public boolean revertCommit(int quantity) {
+        if (quantity <= 0) {
+            return false;
+        }
+        this.reserved.addAndGet(quantity);
+        return true;
+    }
+
+    /**
+     * Returns previously reserved units to available stock
+     *
+     * @return true if that many units were reserved
+     */
+    public boolean release(int quantity) {
+        if (quantity <= 0 || !tryDecrement(this.reserved, quantity)) {
+            return false;
+        }
+        this.available.addAndGet(quantity);
+        return true;
+    }
+
+    /**
+     * Adds newly delivered units to available stock
+     */
+    public boolean restock(int quantity) {
+        if (quantity <= 0) {
+            return false;
+        }
+        this.available.addAndGet(quantity);
+        return true;
+    }
+
+    /**
+     * Removes units from available stock without going through a reservation
+     *
+     * @return true if enough stock was available
+     */
+    public boolean reduce(int quantity) {
+        return quantity >= 0 && tryDecrement(this.available, quantity);
+    }
+
+    private static boolean tryDecrement(AtomicInteger counter, int quantity) {
+        while (true) {
+            int current = counter.get();
+            if (current < quantity) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+
+/**
+ * Notified after a {@link Product}'s available stock may have dropped to zero or
+ * come back from it, so indexes over in-stock products can stay current without
+ * polling every product.
+ */
+public interface StockListener {
+
+    void stockChanged(Product product);
+}
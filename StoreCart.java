@@ -0,0 +1,268 @@
+import java.util.Arrays;
+
+/**
+ * Cart of products kept in a {@link ProductStore}, referenced by handle.
+ * <p>
+ * Lines are two parallel {@code int[]} columns, handle and quantity, in
+ * insertion order, with an open-addressing index from handle to line number,
+ * the same layout as {@link ColumnarCart} without the {@code Product} column.
+ * Adding, removing and pricing items reads the store's records in place and
+ * never allocates. Shipping fees and weight are totalled alongside the price,
+ * so shipping always matches the cart as it stands. Stock is reserved in the store exactly as {@link Cart}
+ * reserves it on a product, and like a {@code Cart} it is sealed once checked
+ * out.
+ */
+public class StoreCart {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ProductStore store;
+    private int[] handles = new int[INITIAL_CAPACITY];
+    private int[] quantities = new int[INITIAL_CAPACITY];
+    private int lines;
+    private int liveLines;
+    // Line number + 1 per slot, 0 marks an empty slot
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+    private long totalPriceMinor;
+    private long totalShippingFeesMinor;
+    private double totalWeight;
+    private volatile boolean checkedOut;
+
+    public StoreCart(ProductStore store) {
+        if (store == null) {
+            throw new IllegalArgumentException("Invalid product store");
+        }
+        this.store = store;
+    }
+
+    public ProductStore getStore() {
+        return this.store;
+    }
+
+    public boolean addItem(int handle, int quantity) {
+        if (this.checkedOut || !this.store.isValid(handle) || quantity <= 0 || quantity > this.store.getQuantity(handle)
+                || this.store.isExpired(handle)) {
+            return refuseItem();
+        }
+        long linePrice;
+        long lineFees;
+        try {
+            linePrice = Money.multiply(this.store.getPriceMinor(handle), quantity);
+            Money.add(this.totalPriceMinor, linePrice);
+            lineFees = Money.multiply(this.store.getShippingFeesMinor(handle), quantity);
+            Money.add(this.totalShippingFeesMinor, lineFees);
+        } catch (ArithmeticException e) {
+            return refuseItem();
+        }
+        if (!this.store.reserveQuantity(handle, quantity)) {
+            return refuseItem();
+        }
+        int slot = findSlot(handle);
+        int line = this.index[slot] - 1;
+        if (line < 0) {
+            appendLine(handle, quantity);
+        } else if (this.quantities[line] > 0) {
+            this.quantities[line] += quantity;
+        } else {
+            // A re-added item goes to the end, as in Cart; its emptied line is dropped on the next compaction
+            appendColumns(handle, quantity);
+            this.index[slot] = this.lines;
+            growIndexIfNeeded();
+        }
+        this.totalPriceMinor = Money.add(this.totalPriceMinor, linePrice);
+        this.totalShippingFeesMinor = Money.add(this.totalShippingFeesMinor, lineFees);
+        this.totalWeight += this.store.getWeight(handle) * quantity;
+        return true;
+    }
+
+    private static boolean refuseItem() {
+        CheckoutMetrics.global().recordRejection(CheckoutMetrics.Rejection.ITEM_REFUSED);
+        return false;
+    }
+
+    /**
+     * Removes units of an item and returns their reserved stock to the store
+     *
+     * @return false if the cart holds fewer than {@code quantity} units of the item
+     */
+    public boolean removeItem(int handle, int quantity) {
+        int line = findLine(handle);
+        if (this.checkedOut || line < 0 || quantity <= 0 || quantity > this.quantities[line]) {
+            return false;
+        }
+        if (!this.store.releaseReservation(handle, quantity)) {
+            return false;
+        }
+        this.quantities[line] -= quantity;
+        this.totalPriceMinor = Money.subtract(this.totalPriceMinor, Money.multiply(this.store.getPriceMinor(handle), quantity));
+        this.totalShippingFeesMinor = Money.subtract(this.totalShippingFeesMinor,
+                Money.multiply(this.store.getShippingFeesMinor(handle), quantity));
+        this.totalWeight -= this.store.getWeight(handle) * quantity;
+        if (this.quantities[line] == 0) {
+            this.liveLines--;
+            if (this.liveLines == 0) {
+                // Avoid leaving floating-point weight residue behind once nothing ships
+                this.totalWeight = 0.0;
+            }
+            // Emptied lines stay in the columns until they make up half of them
+            if (this.lines - this.liveLines > this.lines / 2) {
+                compact();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Seals the cart for a checkout, so it is checked out at most once
+     *
+     * @return false if the cart has already been claimed
+     */
+    synchronized boolean claimCheckout() {
+        if (this.checkedOut) {
+            return false;
+        }
+        this.checkedOut = true;
+        return true;
+    }
+
+    /**
+     * Gives the cart back after a failed checkout, so it can be changed or checked out again
+     */
+    synchronized void releaseCheckout() {
+        this.checkedOut = false;
+    }
+
+    /**
+     * @return true once the cart has been checked out; its stock is sold and it cannot be reused
+     */
+    public synchronized boolean isCheckedOut() {
+        return this.checkedOut;
+    }
+
+    public int getItemQuantity(int handle) {
+        int line = findLine(handle);
+        return line < 0 ? 0 : this.quantities[line];
+    }
+
+    /**
+     * Visits every line in insertion order
+     */
+    public void forEachItem(HandleLineConsumer consumer) {
+        for (int line = 0; line < this.lines; line++) {
+            if (this.quantities[line] > 0) {
+                consumer.accept(this.handles[line], this.quantities[line]);
+            }
+        }
+    }
+
+    public int getLineCount() {
+        return this.liveLines;
+    }
+
+    public boolean isEmpty() {
+        return this.liveLines == 0;
+    }
+
+    public double getTotalPrice() {
+        return Money.toMajor(this.totalPriceMinor);
+    }
+
+    public long getTotalPriceMinor() {
+        return this.totalPriceMinor;
+    }
+
+    public long getTotalShippingFeesMinor() {
+        return this.totalShippingFeesMinor;
+    }
+
+    public double getTotalWeight() {
+        return this.totalWeight;
+    }
+
+    private void appendLine(int handle, int quantity) {
+        appendColumns(handle, quantity);
+        if (this.lines * 2 > this.index.length) {
+            rebuildIndex(this.index.length * 2);
+        } else {
+            insertIndex(this.lines - 1);
+        }
+    }
+
+    private void appendColumns(int handle, int quantity) {
+        if (this.lines == this.handles.length) {
+            int capacity = this.handles.length * 2;
+            this.handles = Arrays.copyOf(this.handles, capacity);
+            this.quantities = Arrays.copyOf(this.quantities, capacity);
+        }
+        this.handles[this.lines] = handle;
+        this.quantities[this.lines] = quantity;
+        this.lines++;
+        this.liveLines++;
+    }
+
+    private void growIndexIfNeeded() {
+        if (this.lines * 2 > this.index.length) {
+            rebuildIndex(this.index.length * 2);
+        }
+    }
+
+    private int findLine(int handle) {
+        return this.index[findSlot(handle)] - 1;
+    }
+
+    /**
+     * @return the index slot holding the handle's line, or the empty slot where it would go
+     */
+    private int findSlot(int handle) {
+        int mask = this.index.length - 1;
+        for (int slot = hash(handle) & mask; ; slot = (slot + 1) & mask) {
+            int entry = this.index[slot];
+            if (entry == 0 || this.handles[entry - 1] == handle) {
+                return slot;
+            }
+        }
+    }
+
+    private void insertIndex(int line) {
+        int mask = this.index.length - 1;
+        int slot = hash(this.handles[line]) & mask;
+        while (this.index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        this.index[slot] = line + 1;
+    }
+
+    /**
+     * Indexes the live lines only, so a handle never has an emptied line shadowing its current one
+     */
+    private void rebuildIndex(int tableSize) {
+        this.index = new int[tableSize];
+        for (int line = 0; line < this.lines; line++) {
+            if (this.quantities[line] > 0) {
+                insertIndex(line);
+            }
+        }
+    }
+
+    /**
+     * Drops emptied lines, keeping the remaining ones in insertion order
+     */
+    private void compact() {
+        int kept = 0;
+        for (int line = 0; line < this.lines; line++) {
+            if (this.quantities[line] > 0) {
+                this.handles[kept] = this.handles[line];
+                this.quantities[kept] = this.quantities[line];
+                kept++;
+            }
+        }
+        Arrays.fill(this.quantities, kept, this.lines, 0);
+        this.lines = kept;
+        rebuildIndex(this.index.length);
+    }
+
+    private static int hash(int handle) {
+        int h = handle * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
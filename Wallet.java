@@ -0,0 +1,67 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spendable balance in minor units, debited atomically at checkout.
+ * <p>
+ * Check-and-debit is a single compare-and-set loop on an {@link AtomicLong},
+ * so any number of parallel checkouts can draw on the same wallet (for example
+ * a corporate account shared by many buyers) without a lock, and the balance
+ * can never go negative.
+ */
+public class Wallet {
+
+    private final AtomicLong balanceMinor;
+
+    public Wallet(long balanceMinor) {
+        if (balanceMinor < 0) {
+            throw new IllegalArgumentException("Invalid balance");
+        }
+        this.balanceMinor = new AtomicLong(balanceMinor);
+    }
+
+    public long getBalanceMinor() {
+        return this.balanceMinor.get();
+    }
+
+    /**
+     * Takes the amount out of the wallet if, and only if, the balance covers it
+     *
+     * @return true if the wallet was debited
+     */
+    public boolean tryDebit(long amountMinor) {
+        if (amountMinor < 0) {
+            return false;
+        }
+        while (true) {
+            long current = this.balanceMinor.get();
+            if (current < amountMinor) {
+                return false;
+            }
+            if (this.balanceMinor.compareAndSet(current, current - amountMinor)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts money back, e.g. to roll back a debit whose checkout failed
+     */
+    public boolean credit(long amountMinor) {
+        if (amountMinor < 0) {
+            return false;
+        }
+        while (true) {
+            long current = this.balanceMinor.get();
+            long updated;
+            try {
+                updated = Money.add(current, amountMinor);
+            } catch (ArithmeticException e) {
+                return false;
+            }
+            if (this.balanceMinor.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+}